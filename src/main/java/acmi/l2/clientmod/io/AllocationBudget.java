@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+public class AllocationBudget {
+    public static final int GROWTH_THRESHOLD = 0x10000;
+
+    private final int maxLength;
+    private final long maxBytes;
+    private long allocated;
+
+    public AllocationBudget(int maxLength, long maxBytes) {
+        this.maxLength = maxLength;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getAllocated() {
+        return allocated;
+    }
+
+    public void allocate(int length, int elementSize) throws SerializerException {
+        if (length > maxLength)
+            throw new SerializerException("Length " + length + " exceeds limit " + maxLength);
+
+        allocated += (long) length * elementSize;
+        if (allocated > maxBytes)
+            throw new SerializerException("Allocation budget of " + maxBytes + " bytes exceeded");
+    }
+
+    void rollback(long allocated) {
+        this.allocated = allocated;
+    }
+
+    public void reset() {
+        allocated = 0;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.util.ArrayDeque;
+
+public class BufferPool {
+    private static final BufferPool DEFAULT = new BufferPool(1 << 8, 1 << 24, 4);
+
+    private final int minSize;
+    private final int maxSize;
+    private final int buffersPerClass;
+    private final ThreadLocal<ArrayDeque<byte[]>[]> pools;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minSize, int maxSize, int buffersPerClass) {
+        if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1 || minSize > maxSize)
+            throw new IllegalArgumentException("Sizes must be powers of two, min <= max");
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.buffersPerClass = buffersPerClass;
+        int classes = sizeClass(maxSize) + 1;
+        this.pools = ThreadLocal.withInitial(() -> new ArrayDeque[classes]);
+    }
+
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    public byte[] lease(int minCapacity) {
+        if (minCapacity > maxSize)
+            return new byte[minCapacity];
+
+        int sizeClass = sizeClass(minCapacity);
+        ArrayDeque<byte[]> pool = pools.get()[sizeClass];
+        byte[] buffer = pool == null ? null : pool.pollFirst();
+        return buffer != null ? buffer : new byte[minSize << sizeClass];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length < minSize || buffer.length > maxSize || Integer.bitCount(buffer.length) != 1)
+            return;
+
+        ArrayDeque<byte[]>[] classes = pools.get();
+        int sizeClass = sizeClass(buffer.length);
+        if (classes[sizeClass] == null)
+            classes[sizeClass] = new ArrayDeque<>(buffersPerClass);
+        if (classes[sizeClass].size() < buffersPerClass)
+            classes[sizeClass].addFirst(buffer);
+    }
+
+    private int sizeClass(int capacity) {
+        if (capacity <= minSize)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(minSize);
+    }
+}
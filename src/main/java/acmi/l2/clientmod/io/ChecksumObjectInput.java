@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+public class ChecksumObjectInput<T extends Context> implements ObjectInput<T> {
+    private final ObjectInput<T> input;
+    private final Checksum checksum;
+
+    private final byte[] block = new byte[0x400];
+    private int count;
+
+    public ChecksumObjectInput(ObjectInput<T> input) {
+        this(input, new CRC32());
+    }
+
+    public ChecksumObjectInput(ObjectInput<T> input, Checksum checksum) {
+        this.input = input;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        int b = input.readUnsignedByte();
+        if (count == block.length)
+            update();
+        block[count++] = (byte) b;
+        return b;
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        input.readFully(b, off, len);
+        if (count + len <= block.length) {
+            System.arraycopy(b, off, block, count, len);
+            count += len;
+        } else {
+            update();
+            checksum.update(b, off, len);
+        }
+    }
+
+    private void update() {
+        checksum.update(block, 0, count);
+        count = 0;
+    }
+
+    public long getChecksum() {
+        update();
+        return checksum.getValue();
+    }
+
+    public void resetChecksum() {
+        count = 0;
+        checksum.reset();
+    }
+
+    public void verifyChecksum() throws UncheckedIOException {
+        int actual = (int) getChecksum();
+        int expected = input.readInt();
+        if (actual != expected)
+            throw new SerializerException(String.format("Checksum mismatch at %d: expected %08x, actual %08x", input.getPosition() - 4, expected, actual));
+        resetChecksum();
+    }
+
+    public <O> O readChecksummed(Class<O> clazz) throws UncheckedIOException {
+        resetChecksum();
+        O obj = readObject(clazz);
+        verifyChecksum();
+        return obj;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return input.getCharset();
+    }
+
+    @Override
+    public int getPosition() throws UncheckedIOException {
+        return input.getPosition();
+    }
+
+    @Override
+    public SerializerFactory<T> getSerializerFactory() {
+        return input.getSerializerFactory();
+    }
+
+    @Override
+    public T getContext() {
+        return input.getContext();
+    }
+
+    @Override
+    public AllocationBudget getAllocationBudget() {
+        return input.getAllocationBudget();
+    }
+}
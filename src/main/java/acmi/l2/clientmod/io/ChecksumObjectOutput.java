@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+public class ChecksumObjectOutput<T extends Context> implements ObjectOutput<T> {
+    private final ObjectOutput<T> output;
+    private final Checksum checksum;
+
+    private final byte[] block = new byte[0x400];
+    private int count;
+
+    public ChecksumObjectOutput(ObjectOutput<T> output) {
+        this(output, new CRC32());
+    }
+
+    public ChecksumObjectOutput(ObjectOutput<T> output, Checksum checksum) {
+        this.output = output;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        output.writeByte(b);
+        if (count == block.length)
+            update();
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        output.writeBytes(b, off, len);
+        if (count + len <= block.length) {
+            System.arraycopy(b, off, block, count, len);
+            count += len;
+        } else {
+            update();
+            checksum.update(b, off, len);
+        }
+    }
+
+    private void update() {
+        checksum.update(block, 0, count);
+        count = 0;
+    }
+
+    public long getChecksum() {
+        update();
+        return checksum.getValue();
+    }
+
+    public void resetChecksum() {
+        count = 0;
+        checksum.reset();
+    }
+
+    public void writeChecksum() throws UncheckedIOException {
+        output.writeInt((int) getChecksum());
+        resetChecksum();
+    }
+
+    public void writeChecksummed(Object object) throws UncheckedIOException {
+        resetChecksum();
+        write(object);
+        writeChecksum();
+    }
+
+    @Override
+    public Charset getCharset() {
+        return output.getCharset();
+    }
+
+    @Override
+    public int getPosition() throws UncheckedIOException {
+        return output.getPosition();
+    }
+
+    @Override
+    public SerializerFactory<T> getSerializerFactory() {
+        return output.getSerializerFactory();
+    }
+
+    @Override
+    public T getContext() {
+        return output.getContext();
+    }
+}
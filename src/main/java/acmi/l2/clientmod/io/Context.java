@@ -22,4 +22,11 @@
 package acmi.l2.clientmod.io;
 
 public interface Context {
+    default ReferenceTable<String> getNameTable() {
+        return null;
+    }
+
+    default ReferenceTable<?> getObjectTable() {
+        return null;
+    }
 }
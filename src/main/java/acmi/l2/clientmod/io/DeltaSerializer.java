@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.io.annotation.Columnar;
+import acmi.l2.clientmod.io.annotation.Custom;
+import acmi.l2.clientmod.io.annotation.Nullable;
+import acmi.l2.clientmod.io.annotation.ObjectRef;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+public class DeltaSerializer<C extends Context> {
+    private static final int FULL = 0;
+    private static final int DELTA = 1;
+
+    private final ReflectionSerializerFactory<C> serializerFactory;
+    private final Map<Class, List<Member>> plans = new HashMap<>();
+
+    public DeltaSerializer(ReflectionSerializerFactory<C> serializerFactory) {
+        this.serializerFactory = serializerFactory;
+    }
+
+    public void writeDelta(Object previous, Object current, ObjectOutput<C> output) throws UncheckedIOException {
+        if (previous.getClass() != current.getClass())
+            throw new SerializerException("Cannot diff " + previous.getClass() + " against " + current.getClass());
+
+        List<Member> members = plan(current.getClass());
+        if (members == null) {
+            Serializer serializer = serializerFactory.forClass(current.getClass());
+            serializer.writeObject(current, output);
+            return;
+        }
+
+        boolean[] changed = new boolean[members.size()];
+        long mask = 0;
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            changed[i] = member.field == null || !member.same(member.get(previous), member.get(current));
+            if (changed[i])
+                mask |= 1L << (i & 63);
+            if ((i & 63) == 63 || i == members.size() - 1) {
+                output.writeVarLong(mask);
+                mask = 0;
+            }
+        }
+        for (int i = 0; i < members.size(); i++) {
+            if (changed[i])
+                members.get(i).writeDelta(previous, current, output);
+        }
+    }
+
+    public void applyDelta(Object target, ObjectInput<C> input) throws UncheckedIOException {
+        List<Member> members = plan(target.getClass());
+        if (members == null) {
+            Serializer serializer = serializerFactory.forClass(target.getClass());
+            serializer.readObject(target, input);
+            return;
+        }
+
+        long[] masks = new long[(members.size() + 63) >>> 6];
+        for (int i = 0; i < masks.length; i++)
+            masks[i] = input.readVarLong();
+        for (int i = 0; i < members.size(); i++) {
+            if ((masks[i >>> 6] & (1L << (i & 63))) != 0)
+                members.get(i).applyDelta(target, input);
+        }
+    }
+
+    private List<Member> plan(Class<?> type) {
+        if (!plans.containsKey(type)) {
+            plans.put(type, createPlan(type));
+        }
+        return plans.get(type);
+    }
+
+    private List<Member> createPlan(Class<?> type) {
+        if (!(serializerFactory.forClass(type) instanceof ReflectionSerializerFactory.SerializerImpl))
+            return null;
+
+        List<Member> members = new ArrayList<>();
+        for (Class<?> level : serializerFactory.getHierarchy(type)) {
+            if (serializerFactory.hasMethods(level)) {
+                Member member = new Member(null);
+                serializerFactory.buildForLevel(level, member.read, member.write);
+                members.add(member);
+                continue;
+            }
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!serializerFactory.validField(field))
+                    continue;
+
+                Member member = new Member(field);
+                serializerFactory.handleField(field, member.read, member.write);
+                if (field.getType().isArray() && !field.isAnnotationPresent(Custom.class) && !field.isAnnotationPresent(Columnar.class)) {
+                    member.elementRead = new ArrayList<>();
+                    member.elementWrite = new ArrayList<>();
+                    serializerFactory.serializer(field.getType().getComponentType(),
+                            cell -> cell[0], (cell, val) -> cell[0] = val.get(),
+                            field::getAnnotation,
+                            member.elementRead, member.elementWrite);
+                }
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    private boolean nested(Member member) {
+        Class<?> type = member.field.getType();
+        return member.field.getAnnotations().length == 0 && !type.isPrimitive() && !type.isArray() &&
+                !type.isEnum() && type != EnumSet.class && type != EnumMap.class && type != String.class && type != ByteBuffer.class && !Number.class.isAssignableFrom(type);
+    }
+
+    private boolean deltaObject(Object previous, Object current) {
+        return previous != null && current != null && previous.getClass() == current.getClass() &&
+                !value(current) && plan(current.getClass()) != null;
+    }
+
+    private static boolean value(Object obj) {
+        return obj instanceof Number || obj instanceof String || obj instanceof Enum || obj instanceof ByteBuffer ||
+                obj instanceof EnumSet || obj instanceof EnumMap;
+    }
+
+    private boolean equal(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.getClass() != b.getClass())
+            return false;
+        if (a.getClass().isArray()) {
+            int length = Array.getLength(a);
+            if (length != Array.getLength(b))
+                return false;
+            if (a.getClass().getComponentType().isPrimitive())
+                return Objects.deepEquals(a, b);
+            for (int i = 0; i < length; i++) {
+                if (!equal(Array.get(a, i), Array.get(b, i)))
+                    return false;
+            }
+            return true;
+        }
+        List<Member> members = value(a) ? null : plan(a.getClass());
+        if (members == null)
+            return a.equals(b);
+        for (Member member : members) {
+            if (member.field == null || !member.same(member.get(a), member.get(b)))
+                return false;
+        }
+        return true;
+    }
+
+    private class Member {
+        final Field field;
+        final boolean reference;
+        final boolean nullable;
+        final List<BiConsumer<Object, ObjectInput<C>>> read = new ArrayList<>();
+        final List<BiConsumer<Object, ObjectOutput<C>>> write = new ArrayList<>();
+        List<BiConsumer<Object[], ObjectInput<C>>> elementRead;
+        List<BiConsumer<Object[], ObjectOutput<C>>> elementWrite;
+
+        Member(Field field) {
+            this.field = field;
+            this.reference = field != null && field.isAnnotationPresent(ObjectRef.class);
+            this.nullable = field != null && field.isAnnotationPresent(Nullable.class);
+        }
+
+        Object get(Object obj) {
+            return ReflectionUtil.fieldGet(field, obj);
+        }
+
+        boolean same(Object a, Object b) {
+            if (!reference || a == b)
+                return equal(a, b);
+            if (a == null || b == null || !a.getClass().isArray() || Array.getLength(a) != Array.getLength(b))
+                return false;
+            for (int i = 0; i < Array.getLength(a); i++) {
+                if (Array.get(a, i) != Array.get(b, i))
+                    return false;
+            }
+            return true;
+        }
+
+        void writeDelta(Object previous, Object current, ObjectOutput<C> output) {
+            if (field == null) {
+                writeFull(current, output);
+                return;
+            }
+
+            Object prev = get(previous);
+            Object cur = get(current);
+            if (nullable) {
+                output.writeByte(cur != null ? 1 : 0);
+                if (cur == null)
+                    return;
+            }
+            if (elementWrite != null) {
+                if (prev == null || cur == null || Array.getLength(prev) != Array.getLength(cur)) {
+                    output.writeByte(FULL);
+                    writeFull(current, output);
+                    return;
+                }
+                output.writeByte(DELTA);
+                writeElements(prev, cur, output);
+            } else if (nested(this)) {
+                if (!deltaObject(prev, cur)) {
+                    output.writeByte(FULL);
+                    writeFull(current, output);
+                    return;
+                }
+                output.writeByte(DELTA);
+                DeltaSerializer.this.writeDelta(prev, cur, output);
+            } else {
+                writeFull(current, output);
+            }
+        }
+
+        void applyDelta(Object target, ObjectInput<C> input) {
+            if (nullable && input.readUnsignedByte() == 0) {
+                ReflectionUtil.fieldSet(field, target, null);
+                return;
+            }
+            if (field == null || (elementRead == null && !nested(this)) || input.readUnsignedByte() == FULL) {
+                for (BiConsumer<Object, ObjectInput<C>> action : read)
+                    action.accept(target, input);
+            } else if (elementRead != null) {
+                applyElements(get(target), input);
+            } else {
+                DeltaSerializer.this.applyDelta(get(target), input);
+            }
+        }
+
+        private void writeFull(Object obj, ObjectOutput<C> output) {
+            for (BiConsumer<Object, ObjectOutput<C>> action : write)
+                action.accept(obj, output);
+        }
+
+        private void writeElements(Object prev, Object cur, ObjectOutput<C> output) {
+            boolean objects = !cur.getClass().getComponentType().isPrimitive() && !reference;
+            int length = Array.getLength(cur);
+            int[] changed = new int[length];
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                Object p = Array.get(prev, i);
+                Object c = Array.get(cur, i);
+                if (reference ? p != c : !equal(p, c))
+                    changed[count++] = i;
+            }
+            output.writeVarInt(count);
+
+            Object[] cell = new Object[1];
+            int last = 0;
+            for (int k = 0; k < count; k++) {
+                int i = changed[k];
+                Object p = Array.get(prev, i);
+                Object c = Array.get(cur, i);
+                output.writeVarInt(i - last);
+                last = i;
+                if (objects) {
+                    if (deltaObject(p, c)) {
+                        output.writeByte(DELTA);
+                        DeltaSerializer.this.writeDelta(p, c, output);
+                        continue;
+                    }
+                    output.writeByte(FULL);
+                }
+                cell[0] = c;
+                for (BiConsumer<Object[], ObjectOutput<C>> action : elementWrite)
+                    action.accept(cell, output);
+            }
+        }
+
+        private void applyElements(Object array, ObjectInput<C> input) {
+            boolean objects = !array.getClass().getComponentType().isPrimitive() && !reference;
+            int count = input.readVarInt();
+            Object[] cell = new Object[1];
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                index += input.readVarInt();
+                if (objects && input.readUnsignedByte() == DELTA) {
+                    DeltaSerializer.this.applyDelta(Array.get(array, index), input);
+                    continue;
+                }
+                for (BiConsumer<Object[], ObjectInput<C>> action : elementRead)
+                    action.accept(cell, input);
+                Array.set(array, index, cell[0]);
+            }
+        }
+    }
+}
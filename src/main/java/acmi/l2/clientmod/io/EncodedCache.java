@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class EncodedCache {
+    private final long maxBytes;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public EncodedCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized byte[] get(Object obj, Charset charset, Object context) {
+        expunge();
+        Entry entry = entries.get(new Key(obj, null));
+        if (entry == null || !entry.charset.equals(charset) || entry.context.get() != context)
+            return null;
+        return entry.bytes;
+    }
+
+    public synchronized void put(Object obj, Charset charset, Object context, byte[] bytes) {
+        expunge();
+        if (bytes.length > maxBytes)
+            return;
+
+        Entry previous = entries.put(new Key(obj, queue), new Entry(bytes, charset, context));
+        if (previous != null)
+            size -= previous.bytes.length;
+        size += bytes.length;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            size -= it.next().bytes.length;
+            it.remove();
+        }
+    }
+
+    public synchronized long size() {
+        expunge();
+        return size;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void expunge() {
+        for (Reference<?> ref; (ref = queue.poll()) != null; ) {
+            Entry entry = entries.remove(ref);
+            if (entry != null)
+                size -= entry.bytes.length;
+        }
+    }
+
+    private static class Key extends WeakReference<Object> {
+        final int hash;
+
+        Key(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Object referent = get();
+            return referent != null && referent == ((Key) obj).get();
+        }
+    }
+
+    private static class Entry {
+        final byte[] bytes;
+        final Charset charset;
+        final WeakReference<Object> context;
+
+        Entry(byte[] bytes, Charset charset, Object context) {
+            this.bytes = bytes;
+            this.charset = charset;
+            this.context = new WeakReference<>(context);
+        }
+    }
+}
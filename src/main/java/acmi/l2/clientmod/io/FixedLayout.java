@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+public class FixedLayout {
+    private final Class<?> clazz;
+    private final Field[] fields;
+    private final int[] offsets;
+    private final int[] widths;
+    private final int[] lengths;
+    private final int size;
+
+    public FixedLayout(Class<?> clazz, List<Field> fields, List<Integer> widths, List<Integer> lengths) {
+        this.clazz = clazz;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.offsets = new int[fields.size()];
+        this.widths = new int[fields.size()];
+        this.lengths = new int[fields.size()];
+
+        int offset = 0;
+        for (int i = 0; i < this.fields.length; i++) {
+            this.offsets[i] = offset;
+            this.widths[i] = widths.get(i);
+            this.lengths[i] = lengths.get(i);
+            offset += this.lengths[i] < 0 ? this.widths[i] : this.widths[i] * this.lengths[i];
+        }
+        this.size = offset;
+    }
+
+    public Class<?> getType() {
+        return clazz;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public int indexOf(String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getName().equals(name))
+                return i;
+        }
+        throw new IllegalArgumentException(clazz + " has no field " + name);
+    }
+
+    public Field getField(int index) {
+        return fields[index];
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getWidth(int index) {
+        return widths[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    @Override
+    public String toString() {
+        return "FixedLayout[" + clazz + ", " + size + " bytes]";
+    }
+}
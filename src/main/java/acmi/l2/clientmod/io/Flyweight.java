@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class Flyweight<T> {
+    private final FixedLayout layout;
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int count;
+    private int base;
+
+    public Flyweight(FixedLayout layout, ByteBuffer buffer) {
+        this.layout = layout;
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.start = this.buffer.position();
+        int remaining = this.buffer.remaining();
+        if (layout.size() == 0 ? remaining != 0 : remaining % layout.size() != 0)
+            throw new UncheckedIOException(new EOFException());
+        this.count = layout.size() == 0 ? 0 : remaining / layout.size();
+        this.base = start;
+    }
+
+    public FixedLayout getLayout() {
+        return layout;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public Flyweight<T> moveTo(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException(index + " of " + count);
+
+        base = start + index * layout.size();
+        return this;
+    }
+
+    public byte getByte(int field) {
+        return buffer.get(base + layout.getOffset(field));
+    }
+
+    public byte getByte(int field, int index) {
+        return buffer.get(base + layout.getOffset(field) + index);
+    }
+
+    public short getShort(int field) {
+        return buffer.getShort(base + layout.getOffset(field));
+    }
+
+    public short getShort(int field, int index) {
+        return buffer.getShort(base + layout.getOffset(field) + index * 2);
+    }
+
+    public int getInt(int field) {
+        return getInt(field, 0);
+    }
+
+    public int getInt(int field, int index) {
+        int width = layout.getWidth(field);
+        int pos = base + layout.getOffset(field) + index * width;
+        switch (width) {
+            case 1:
+                return buffer.get(pos) & 0xff;
+            case 2:
+                return buffer.getShort(pos) & 0xffff;
+            default:
+                return buffer.getInt(pos);
+        }
+    }
+
+    public long getLong(int field) {
+        return buffer.getLong(base + layout.getOffset(field));
+    }
+
+    public long getLong(int field, int index) {
+        return buffer.getLong(base + layout.getOffset(field) + index * 8);
+    }
+
+    public float getFloat(int field) {
+        return buffer.getFloat(base + layout.getOffset(field));
+    }
+
+    public float getFloat(int field, int index) {
+        return buffer.getFloat(base + layout.getOffset(field) + index * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get() {
+        T obj = (T) ReflectionUtil.instantiate(layout.getType());
+        readInto(obj);
+        return obj;
+    }
+
+    public void readInto(T obj) {
+        for (int i = 0; i < layout.getFieldCount(); i++) {
+            Field field = layout.getField(i);
+            Class<?> type = field.getType();
+            if (type.isArray()) {
+                Object array = Array.newInstance(type.getComponentType(), layout.getLength(i));
+                for (int j = 0; j < layout.getLength(i); j++)
+                    Array.set(array, j, get(type.getComponentType(), i, j));
+                ReflectionUtil.fieldSet(field, obj, array);
+            } else {
+                ReflectionUtil.fieldSet(field, obj, get(type, i, 0));
+            }
+        }
+    }
+
+    private Object get(Class<?> type, int field, int index) {
+        if (type == Byte.TYPE || type == Byte.class)
+            return getByte(field, index);
+        if (type == Short.TYPE || type == Short.class)
+            return getShort(field, index);
+        if (type == Integer.TYPE || type == Integer.class)
+            return getInt(field, index);
+        if (type == Long.TYPE || type == Long.class)
+            return getLong(field, index);
+        return getFloat(field, index);
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.io.annotation.Length;
+import acmi.l2.clientmod.io.annotation.Nullable;
+import acmi.l2.clientmod.io.annotation.Subtypes;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+public class IncrementalDecoder<T, C extends Context> {
+    private final ReflectionSerializerFactory<C> serializerFactory;
+    private final Class<T> clazz;
+    private final Charset charset;
+    private final C context;
+    private AllocationBudget allocationBudget;
+
+    private final Map<Class, List<Step>> plans = new HashMap<>();
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private Object root;
+
+    private byte[] data = new byte[0x1000];
+    private int start;
+    private int end;
+    private int position;
+
+    public IncrementalDecoder(ReflectionSerializerFactory<C> serializerFactory, Class<T> clazz, Charset charset, C context) {
+        this.serializerFactory = serializerFactory;
+        this.clazz = clazz;
+        this.charset = charset;
+        this.context = context;
+    }
+
+    public void feed(ByteBuffer src) {
+        int len = src.remaining();
+        ensureCapacity(len);
+        src.get(data, end, len);
+        end += len;
+    }
+
+    public void feed(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, data, end, len);
+        end += len;
+    }
+
+    public AllocationBudget getAllocationBudget() {
+        return allocationBudget;
+    }
+
+    public void setAllocationBudget(AllocationBudget allocationBudget) {
+        this.allocationBudget = allocationBudget;
+    }
+
+    public int buffered() {
+        return end - start;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    private void ensureCapacity(int len) {
+        if (end + len <= data.length)
+            return;
+
+        int size = end - start;
+        byte[] dest = size + len <= data.length ? data : new byte[Math.max(size + len, data.length << 1)];
+        System.arraycopy(data, start, dest, 0, size);
+        data = dest;
+        start = 0;
+        end = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T decode() throws UncheckedIOException {
+        ObjectInputBuffer<C> input = new CopyingInputBuffer<>(ByteBuffer.wrap(data, start, end - start), charset, position, serializerFactory, context);
+        input.setAllocationBudget(allocationBudget);
+        try {
+            if (root == null) {
+                unit(input, in -> {
+                    Object obj = serializerFactory.forClass(clazz).instantiate(in);
+                    if (obj != null)
+                        begin(obj, in);
+                    return obj;
+                });
+                if (root == null)
+                    return null;
+            }
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.done()) {
+                    stack.pop();
+                } else {
+                    unit(input, frame::next);
+                }
+            }
+        } catch (NeedMoreInput e) {
+            return null;
+        }
+
+        T result = (T) root;
+        root = null;
+        return result;
+    }
+
+    private void unit(ObjectInputBuffer<C> input, Function<ObjectInput<C>, Object> action) {
+        int mark = input.getPosition();
+        long allocated = allocationBudget != null ? allocationBudget.getAllocated() : 0;
+        Object result;
+        try {
+            result = action.apply(input);
+        } catch (RuntimeException e) {
+            if (!endOfInput(e))
+                throw e;
+            input.setPosition(mark);
+            if (allocationBudget != null)
+                allocationBudget.rollback(allocated);
+            throw new NeedMoreInput();
+        }
+        if (root == null)
+            root = result;
+        start += input.getPosition() - position;
+        position = input.getPosition();
+    }
+
+    private static boolean endOfInput(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof EOFException)
+                return true;
+        }
+        return false;
+    }
+
+    private void begin(Object obj, ObjectInput<C> input) {
+        List<Step> steps = plan(obj.getClass());
+        if (steps != null) {
+            stack.push(new ObjectFrame(obj, steps));
+        } else {
+            Serializer serializer = serializerFactory.forClass(obj.getClass());
+            serializer.readObject(obj, input);
+        }
+    }
+
+    private List<Step> plan(Class<?> type) {
+        if (!plans.containsKey(type)) {
+            plans.put(type, createPlan(type));
+        }
+        return plans.get(type);
+    }
+
+    private List<Step> createPlan(Class<?> type) {
+        if (!(serializerFactory.forClass(type) instanceof ReflectionSerializerFactory.SerializerImpl))
+            return null;
+
+        List<Field> nullable = serializerFactory.nullableFields(type);
+        List<Step> steps = new ArrayList<>();
+        if (!nullable.isEmpty())
+            steps.add(new MaskStep((nullable.size() + 63) >>> 6));
+        for (Class<?> level : serializerFactory.getHierarchy(type)) {
+            if (serializerFactory.hasMethods(level)) {
+                List<BiConsumer<Object, ObjectInput<C>>> read = new ArrayList<>();
+                serializerFactory.buildForLevel(level, read, new ArrayList<>());
+                steps.add(new LeafStep(read));
+                continue;
+            }
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!serializerFactory.validField(field))
+                    continue;
+
+                Step step = fieldStep(field);
+                int bit = nullable.indexOf(field);
+                steps.add(bit >= 0 ? new NullableStep(field, bit, step) : step);
+            }
+        }
+        return steps;
+    }
+
+    private Step fieldStep(Field field) {
+        Class<?> type = field.getType();
+        if (type.isAnnotationPresent(Subtypes.class) && annotations(field) == 0) {
+            field.setAccessible(true);
+            return new SubtypeStep(field, serializerFactory.subtypeTable(type));
+        } else if (nested(type) && annotations(field) == 0) {
+            field.setAccessible(true);
+            return new ObjectStep(field);
+        } else if (type.isArray() && (nested(type.getComponentType()) || type.getComponentType().isAnnotationPresent(Subtypes.class)) &&
+                annotations(field) == (field.isAnnotationPresent(Length.class) ? 1 : 0)) {
+            field.setAccessible(true);
+            Class<?> componentType = type.getComponentType();
+            return new ArrayStep(field, serializerFactory.lengthReader(field.getAnnotation(Length.class)),
+                    componentType.isAnnotationPresent(Subtypes.class) ? serializerFactory.subtypeTable(componentType) : null);
+        }
+
+        List<BiConsumer<Object, ObjectInput<C>>> read = new ArrayList<>();
+        serializerFactory.handleField(field, read, new ArrayList<>());
+        return new LeafStep(read);
+    }
+
+    private static boolean nested(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && !type.isEnum() && !type.isAnnotationPresent(Subtypes.class) &&
+                type != EnumSet.class && type != EnumMap.class &&
+                type != String.class && type != ByteBuffer.class &&
+                type != Byte.class && type != Short.class && type != Integer.class &&
+                type != Long.class && type != Float.class;
+    }
+
+    private static int annotations(Field field) {
+        return field.getAnnotations().length - (field.isAnnotationPresent(Nullable.class) ? 1 : 0);
+    }
+
+    private Object readElement(Class<?> type, ObjectInput<C> input) {
+        Object obj = serializerFactory.forClass(type).instantiate(input);
+        if (obj != null)
+            begin(obj, input);
+        return obj;
+    }
+
+    private Object readTagged(ReflectionSerializerFactory.SubtypeTable table, ObjectInput<C> input) {
+        Object obj = table.forTag(input.readCompactInt()).instantiate();
+        begin(obj, input);
+        return obj;
+    }
+
+    private abstract class Step {
+        abstract void read(ObjectFrame frame, ObjectInput<C> input);
+    }
+
+    private class LeafStep extends Step {
+        final List<BiConsumer<Object, ObjectInput<C>>> actions;
+
+        LeafStep(List<BiConsumer<Object, ObjectInput<C>>> actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            for (BiConsumer<Object, ObjectInput<C>> action : actions)
+                action.accept(frame.obj, input);
+        }
+    }
+
+    private class MaskStep extends Step {
+        final int words;
+
+        MaskStep(int words) {
+            this.words = words;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            long[] masks = new long[words];
+            for (int i = 0; i < words; i++)
+                masks[i] = input.readVarLong();
+            frame.masks = masks;
+        }
+    }
+
+    private class NullableStep extends Step {
+        final Field field;
+        final int bit;
+        final Step step;
+
+        NullableStep(Field field, int bit, Step step) {
+            this.field = field;
+            this.bit = bit;
+            this.step = step;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            if ((frame.masks[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                ReflectionUtil.fieldSet(field, frame.obj, null);
+            } else {
+                step.read(frame, input);
+            }
+        }
+    }
+
+    private class ObjectStep extends Step {
+        final Field field;
+
+        ObjectStep(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            ReflectionUtil.fieldSet(field, frame.obj, readElement(field.getType(), input));
+        }
+    }
+
+    private class SubtypeStep extends Step {
+        final Field field;
+        final ReflectionSerializerFactory.SubtypeTable table;
+
+        SubtypeStep(Field field, ReflectionSerializerFactory.SubtypeTable table) {
+            this.field = field;
+            this.table = table;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            ReflectionUtil.fieldSet(field, frame.obj, readTagged(table, input));
+        }
+    }
+
+    private class ArrayStep extends Step {
+        final Field field;
+        final Function<DataInput, Integer> lenReader;
+        final ReflectionSerializerFactory.SubtypeTable table;
+
+        ArrayStep(Field field, Function<DataInput, Integer> lenReader, ReflectionSerializerFactory.SubtypeTable table) {
+            this.field = field;
+            this.lenReader = lenReader;
+            this.table = table;
+        }
+
+        @Override
+        void read(ObjectFrame frame, ObjectInput<C> input) {
+            int length = input.checkLength(lenReader.apply(input), 4);
+            stack.push(new ArrayFrame(frame.obj, field, length, table));
+        }
+    }
+
+    private abstract class Frame {
+        abstract boolean done();
+
+        abstract Object next(ObjectInput<C> input);
+    }
+
+    private class ObjectFrame extends Frame {
+        final Object obj;
+        final List<Step> steps;
+        long[] masks;
+        int index;
+
+        ObjectFrame(Object obj, List<Step> steps) {
+            this.obj = obj;
+            this.steps = steps;
+        }
+
+        @Override
+        boolean done() {
+            return index == steps.size();
+        }
+
+        @Override
+        Object next(ObjectInput<C> input) {
+            steps.get(index).read(this, input);
+            index++;
+            return obj;
+        }
+    }
+
+    private class ArrayFrame extends Frame {
+        final Object obj;
+        final Field field;
+        final int length;
+        final ReflectionSerializerFactory.SubtypeTable table;
+        Object[] array;
+        int index;
+
+        ArrayFrame(Object obj, Field field, int length, ReflectionSerializerFactory.SubtypeTable table) {
+            this.obj = obj;
+            this.field = field;
+            this.length = length;
+            this.table = table;
+            grow(Math.min(length, AllocationBudget.GROWTH_THRESHOLD / 4));
+        }
+
+        private void grow(int capacity) {
+            Object[] grown = (Object[]) Array.newInstance(field.getType().getComponentType(), capacity);
+            if (array != null)
+                System.arraycopy(array, 0, grown, 0, index);
+            array = grown;
+            ReflectionUtil.fieldSet(field, obj, array);
+        }
+
+        @Override
+        boolean done() {
+            return index == length;
+        }
+
+        @Override
+        Object next(ObjectInput<C> input) {
+            if (index == array.length)
+                grow((int) Math.min(length, (long) array.length << 1));
+            array[index] = table != null ? readTagged(table, input) : readElement(field.getType().getComponentType(), input);
+            index++;
+            return array;
+        }
+    }
+
+    private static class CopyingInputBuffer<C extends Context> extends ObjectInputBuffer<C> {
+        CopyingInputBuffer(ByteBuffer buffer, Charset charset, int position, SerializerFactory<C> serializerFactory, C context) {
+            super(buffer, charset, position, serializerFactory, context);
+        }
+
+        @Override
+        public ByteBuffer readBuffer(int length) throws UncheckedIOException {
+            ByteBuffer slice = super.readBuffer(length);
+            ByteBuffer copy = ByteBuffer.allocate(slice.remaining());
+            copy.put(slice).flip();
+            return copy.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static class NeedMoreInput extends RuntimeException {
+        NeedMoreInput() {
+            super(null, null, false, false);
+        }
+    }
+}
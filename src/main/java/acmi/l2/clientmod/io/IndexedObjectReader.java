@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class IndexedObjectReader<C extends Context> {
+    private final ObjectInputBuffer<C> input;
+    private final String[] keys;
+    private final int[] offsets;
+    private final Map<String, Object> cache;
+
+    public IndexedObjectReader(ByteBuffer buffer, Charset charset, SerializerFactory<C> serializerFactory, C context) {
+        this(buffer, charset, serializerFactory, context, 0);
+    }
+
+    public IndexedObjectReader(ByteBuffer buffer, Charset charset, SerializerFactory<C> serializerFactory, C context, int cacheSize) {
+        this(buffer, charset, serializerFactory, context, cacheSize, null);
+    }
+
+    public IndexedObjectReader(ByteBuffer buffer, Charset charset, SerializerFactory<C> serializerFactory, C context, int cacheSize, AllocationBudget allocationBudget) {
+        this.input = new ObjectInputBuffer<>(buffer, charset, serializerFactory, context);
+        this.input.setAllocationBudget(allocationBudget);
+
+        int size = input.remaining();
+        if (size < 4)
+            throw new UncheckedIOException(new EOFException());
+        input.setPosition(size - 4);
+        int indexOffset = input.readInt();
+        if (indexOffset < 0 || indexOffset > size - 4)
+            throw new SerializerException("Invalid index offset " + indexOffset);
+
+        input.setPosition(indexOffset);
+        int count = input.readCompactInt();
+        if (count < 0 || count > (size - 4 - input.getPosition()) / 5)
+            throw new SerializerException("Invalid index size " + count);
+        input.checkLength(count, 8);
+        this.keys = new String[count];
+        this.offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = input.readLine();
+            offsets[i] = input.readInt();
+        }
+
+        this.cache = cacheSize > 0 ? new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > cacheSize;
+            }
+        } : null;
+    }
+
+    public static <C extends Context> IndexedObjectReader<C> open(Path path, Charset charset, SerializerFactory<C> serializerFactory, C context, int cacheSize) throws UncheckedIOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            return new IndexedObjectReader<>(buffer, charset, serializerFactory, context, cacheSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public List<String> keys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    public boolean contains(String key) {
+        return Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Class<T> clazz) throws UncheckedIOException {
+        if (cache != null && cache.containsKey(key))
+            return (T) cache.get(key);
+
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0)
+            return null;
+
+        input.setPosition(offsets[i]);
+        T obj = input.readObject(clazz);
+        if (cache != null)
+            cache.put(key, obj);
+        return obj;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class IndexedObjectWriter<C extends Context> {
+    private final ObjectOutput<C> output;
+    private final int base;
+    private final Map<String, Integer> index = new TreeMap<>();
+
+    public IndexedObjectWriter(ObjectOutput<C> output) {
+        this.output = output;
+        this.base = output.getPosition();
+    }
+
+    public void put(String key, Object object) throws UncheckedIOException {
+        if (index.containsKey(key))
+            throw new SerializerException("Duplicate key " + key);
+
+        index.put(key, output.getPosition() - base);
+        output.write(object);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public void finish() throws UncheckedIOException {
+        int indexOffset = output.getPosition() - base;
+        output.writeCompactInt(index.size());
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            output.writeLine(entry.getKey());
+            output.writeInt(entry.getValue());
+        }
+        output.writeInt(indexOffset);
+    }
+}
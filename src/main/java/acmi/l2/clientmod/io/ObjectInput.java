@@ -22,7 +22,11 @@
 package acmi.l2.clientmod.io;
 
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
 
 public interface ObjectInput<C extends Context> extends DataInput {
     SerializerFactory<C> getSerializerFactory();
@@ -36,13 +40,147 @@ public interface ObjectInput<C extends Context> extends DataInput {
         Serializer<T, C> serializer = getSerializerFactory().forClass(clazz);
         T obj = serializer.instantiate(this);
         if (obj != null) {
-            Serializer s = getSerializerFactory().forClass(obj.getClass());
+            Serializer s = obj.getClass() == clazz ? serializer : getSerializerFactory().forClass(obj.getClass());
             //noinspection unchecked
             s.readObject(obj, this);
         }
         return obj;
     }
 
+    default AllocationBudget getAllocationBudget() {
+        return null;
+    }
+
+    default int checkLength(int length, int elementSize) throws SerializerException {
+        if (length < 0)
+            throw new SerializerException("Negative length " + length);
+
+        AllocationBudget budget = getAllocationBudget();
+        if (budget != null)
+            budget.allocate(length, elementSize);
+        return length;
+    }
+
+    default <A> A readArray(int length, int elementSize, IntFunction<A> allocator, ArrayReader<A> reader) throws UncheckedIOException {
+        checkLength(length, elementSize);
+
+        int capacity = Math.max(AllocationBudget.GROWTH_THRESHOLD / elementSize, 1);
+        if (length <= capacity) {
+            A array = allocator.apply(length);
+            reader.read(array, 0, length);
+            return array;
+        }
+
+        A array = allocator.apply(capacity);
+        int pos = 0;
+        while (true) {
+            reader.read(array, pos, capacity - pos);
+            pos = capacity;
+            if (pos == length)
+                return array;
+
+            capacity = (int) Math.min(length, (long) capacity << 1);
+            A grown = allocator.apply(capacity);
+            System.arraycopy(array, 0, grown, 0, pos);
+            array = grown;
+        }
+    }
+
+    @Override
+    default String readLine() throws UncheckedIOException {
+        int len = readCompactInt();
+        if (len == 0)
+            return "";
+
+        long size = len > 0 ? len : -2L * len;
+        if (size > Integer.MAX_VALUE)
+            throw new SerializerException("Invalid string length " + len);
+        byte[] bytes = readArray((int) size, 1, byte[]::new, this::readFully);
+        return new String(bytes, 0, bytes.length - (len > 0 ? 1 : 2), len > 0 ? getCharset() : StandardCharsets.UTF_16LE);
+    }
+
+    @Override
+    default String readUTF() throws UncheckedIOException {
+        byte[] bytes = readArray(readInt(), 1, byte[]::new, this::readFully);
+        return new String(bytes, StandardCharsets.UTF_16LE);
+    }
+
+    default void skipLine() throws UncheckedIOException {
+        int len = readCompactInt();
+        long size = len >= 0 ? len : -2L * len;
+        if (size > Integer.MAX_VALUE)
+            throw new SerializerException("Invalid string length " + len);
+        skipBytes((int) size);
+    }
+
+    default void skipUTF() throws UncheckedIOException {
+        skipBytes(readInt());
+    }
+
+    default void skipBytes(int length) throws UncheckedIOException {
+        checkLength(length, 0);
+        byte[] chunk = new byte[Math.min(length, 0x2000)];
+        for (int n = length; n > 0; n -= chunk.length)
+            readFully(chunk, 0, Math.min(n, chunk.length));
+    }
+
+    default ByteBuffer readBuffer(int length) throws UncheckedIOException {
+        byte[] bytes = readArray(length, 1, byte[]::new, this::readFully);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    default void readCompactInts(int[] dest, int off, int len) throws UncheckedIOException {
+        for (int i = off; i < off + len; i++)
+            dest[i] = readCompactInt();
+    }
+
+    default int readVarInt() throws UncheckedIOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new SerializerException("Malformed varint");
+    }
+
+    default long readVarLong() throws UncheckedIOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new SerializerException("Malformed varint");
+    }
+
+    default int readZigZagInt() throws UncheckedIOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    default long readZigZagLong() throws UncheckedIOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    default void readVarInts(int[] dest, int off, int len) throws UncheckedIOException {
+        for (int i = off; i < off + len; i++)
+            dest[i] = readVarInt();
+    }
+
+    default void readVarLongs(long[] dest, int off, int len) throws UncheckedIOException {
+        for (int i = off; i < off + len; i++)
+            dest[i] = readVarLong();
+    }
+
+    @FunctionalInterface
+    interface ArrayReader<A> {
+        void read(A array, int off, int len) throws UncheckedIOException;
+    }
+
     static <C extends Context> ObjectInput<C> objectInput(DataInput dataInput, SerializerFactory<C> serializerFactory, C context) {
         return new ObjectInput<C>() {
             @Override
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+public class ObjectInputBuffer<T extends Context> implements ObjectInput<T> {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final Charset charset;
+    private final SerializerFactory<T> serializerFactory;
+    private final T context;
+    private AllocationBudget allocationBudget;
+
+    public ObjectInputBuffer(ByteBuffer buffer, Charset charset, SerializerFactory<T> serializerFactory, T context) {
+        this(buffer, charset, 0, serializerFactory, context);
+    }
+
+    public ObjectInputBuffer(ByteBuffer buffer, Charset charset, int position, SerializerFactory<T> serializerFactory, T context) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.offset = position - this.buffer.position();
+        this.charset = charset;
+        this.serializerFactory = serializerFactory;
+        this.context = context;
+    }
+
+    @Override
+    public SerializerFactory<T> getSerializerFactory() {
+        return serializerFactory;
+    }
+
+    @Override
+    public T getContext() {
+        return context;
+    }
+
+    @Override
+    public AllocationBudget getAllocationBudget() {
+        return allocationBudget;
+    }
+
+    public void setAllocationBudget(AllocationBudget allocationBudget) {
+        this.allocationBudget = allocationBudget;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() throws UncheckedIOException {
+        return offset + buffer.position();
+    }
+
+    public void setPosition(int position) throws UncheckedIOException {
+        if (position - offset < 0 || position - offset > buffer.limit())
+            throw new UncheckedIOException(new EOFException());
+
+        buffer.position(position - offset);
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public int readUnsignedByte() throws UncheckedIOException {
+        try {
+            return buffer.get() & 0xff;
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws UncheckedIOException {
+        try {
+            buffer.get(b, off, len);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public void skipBytes(int length) throws UncheckedIOException {
+        if (checkLength(length, 0) > buffer.remaining())
+            throw new UncheckedIOException(new EOFException());
+
+        buffer.position(buffer.position() + length);
+    }
+
+    @Override
+    public int readUnsignedShort() throws UncheckedIOException {
+        try {
+            return buffer.getShort() & 0xffff;
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public int readInt() throws UncheckedIOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public long readLong() throws UncheckedIOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public float readFloat() throws UncheckedIOException {
+        try {
+            return buffer.getFloat();
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public ByteBuffer readBuffer(int length) throws UncheckedIOException {
+        if (checkLength(length, 0) > buffer.remaining())
+            throw new UncheckedIOException(new EOFException());
+
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(slice.position() + length);
+        buffer.position(buffer.position() + length);
+        return slice.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void readCompactInts(int[] dest, int off, int len) throws UncheckedIOException {
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            if (buffer.remaining() >= 8) {
+                int pos = buffer.position();
+                long word = buffer.getLong(pos);
+                int n = Math.min(Long.numberOfTrailingZeros(word & 0x4040404040404040L) >>> 3, end - i);
+                for (int k = 0; k < n; k++, word >>>= 8) {
+                    int sign = (int) (word >>> 7) & 1;
+                    dest[i++] = (((int) word & 0x3f) ^ -sign) + sign;
+                }
+                buffer.position(pos + n);
+                if (i == end)
+                    break;
+            }
+            dest[i++] = readCompactInt();
+        }
+    }
+
+    @Override
+    public void readVarInts(int[] dest, int off, int len) throws UncheckedIOException {
+        try {
+            for (int i = off; i < off + len; i++) {
+                int b = buffer.get();
+                int value = b & 0x7f;
+                for (int shift = 7; b < 0; shift += 7) {
+                    if (shift >= 35)
+                        throw new SerializerException("Malformed varint");
+                    b = buffer.get();
+                    value |= (b & 0x7f) << shift;
+                }
+                dest[i] = value;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+
+    @Override
+    public void readVarLongs(long[] dest, int off, int len) throws UncheckedIOException {
+        try {
+            for (int i = off; i < off + len; i++) {
+                int b = buffer.get();
+                long value = b & 0x7f;
+                for (int shift = 7; b < 0; shift += 7) {
+                    if (shift >= 70)
+                        throw new SerializerException("Malformed varint");
+                    b = buffer.get();
+                    value |= (long) (b & 0x7f) << shift;
+                }
+                dest[i] = value;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(new EOFException());
+        }
+    }
+}
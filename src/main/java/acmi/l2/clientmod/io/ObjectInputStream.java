@@ -27,6 +27,7 @@ import java.nio.charset.Charset;
 public class ObjectInputStream<T extends Context> extends DataInputStream implements ObjectInput<T> {
     private final SerializerFactory<T> serializerFactory;
     private final T context;
+    private AllocationBudget allocationBudget;
 
     public ObjectInputStream(InputStream in, Charset charset, SerializerFactory<T> serializerFactory, T context) {
         this(in, charset, 0, serializerFactory, context);
@@ -47,4 +48,23 @@ public class ObjectInputStream<T extends Context> extends DataInputStream implem
     public T getContext() {
         return context;
     }
+
+    @Override
+    public String readLine() {
+        return ObjectInput.super.readLine();
+    }
+
+    @Override
+    public String readUTF() {
+        return ObjectInput.super.readUTF();
+    }
+
+    @Override
+    public AllocationBudget getAllocationBudget() {
+        return allocationBudget;
+    }
+
+    public void setAllocationBudget(AllocationBudget allocationBudget) {
+        this.allocationBudget = allocationBudget;
+    }
 }
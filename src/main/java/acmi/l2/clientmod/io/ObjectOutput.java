@@ -22,6 +22,7 @@
 package acmi.l2.clientmod.io;
 
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 public interface ObjectOutput<C extends Context> extends DataOutput {
@@ -38,6 +39,106 @@ public interface ObjectOutput<C extends Context> extends DataOutput {
         serializer.writeObject(object, this);
     }
 
+    default void writeBuffer(ByteBuffer buffer) throws UncheckedIOException {
+        if (buffer.hasArray()) {
+            writeBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            ByteBuffer src = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(src.remaining(), 0x2000)];
+            while (src.hasRemaining()) {
+                int len = Math.min(src.remaining(), chunk.length);
+                src.get(chunk, 0, len);
+                writeBytes(chunk, 0, len);
+            }
+        }
+    }
+
+    default void writeCompactInts(int[] values, int off, int len) throws UncheckedIOException {
+        byte[] chunk = new byte[Math.min(len, 0x400) * 5];
+        int pos = 0;
+        for (int i = off; i < off + len; i++) {
+            if (pos > chunk.length - 5) {
+                writeBytes(chunk, 0, pos);
+                pos = 0;
+            }
+            int value = values[i];
+            int v = Math.abs(value);
+            int b = (value < 0 ? 0x80 : 0) | (v & 0x3f);
+            v >>>= 6;
+            if (v == 0) {
+                chunk[pos++] = (byte) b;
+                continue;
+            }
+            chunk[pos++] = (byte) (b | 0x40);
+            while ((v & ~0x7f) != 0) {
+                chunk[pos++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            chunk[pos++] = (byte) v;
+        }
+        writeBytes(chunk, 0, pos);
+    }
+
+    default void writeVarInt(int value) throws UncheckedIOException {
+        while ((value & ~0x7f) != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    default void writeVarLong(long value) throws UncheckedIOException {
+        while ((value & ~0x7fL) != 0) {
+            writeByte(((int) value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    default void writeZigZagInt(int value) throws UncheckedIOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    default void writeZigZagLong(long value) throws UncheckedIOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    default void writeVarInts(int[] values, int off, int len) throws UncheckedIOException {
+        byte[] chunk = new byte[Math.min(len, 0x400) * 5];
+        int pos = 0;
+        for (int i = off; i < off + len; i++) {
+            if (pos > chunk.length - 5) {
+                writeBytes(chunk, 0, pos);
+                pos = 0;
+            }
+            int value = values[i];
+            while ((value & ~0x7f) != 0) {
+                chunk[pos++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            chunk[pos++] = (byte) value;
+        }
+        writeBytes(chunk, 0, pos);
+    }
+
+    default void writeVarLongs(long[] values, int off, int len) throws UncheckedIOException {
+        byte[] chunk = new byte[Math.min(len, 0x400) * 10];
+        int pos = 0;
+        for (int i = off; i < off + len; i++) {
+            if (pos > chunk.length - 10) {
+                writeBytes(chunk, 0, pos);
+                pos = 0;
+            }
+            long value = values[i];
+            while ((value & ~0x7fL) != 0) {
+                chunk[pos++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            chunk[pos++] = (byte) value;
+        }
+        writeBytes(chunk, 0, pos);
+    }
+
     static <C extends Context> ObjectOutput<C> objectOutput(DataOutput dataOutput, SerializerFactory<C> serializerFactory, C context) {
         return new ObjectOutput<C>() {
             @Override
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class ObjectOutputBuffer<T extends Context> implements ObjectOutput<T>, Closeable {
+    private final Charset charset;
+    private final SerializerFactory<T> serializerFactory;
+    private final T context;
+    private final BufferPool pool;
+
+    private byte[] buffer;
+    private int count;
+    private int position;
+    private boolean exposed;
+
+    public ObjectOutputBuffer(Charset charset, SerializerFactory<T> serializerFactory, T context) {
+        this(charset, 0, serializerFactory, context, BufferPool.getDefault());
+    }
+
+    public ObjectOutputBuffer(Charset charset, int position, SerializerFactory<T> serializerFactory, T context, BufferPool pool) {
+        this.charset = charset;
+        this.position = position;
+        this.serializerFactory = serializerFactory;
+        this.context = context;
+        this.pool = pool;
+        this.buffer = pool != null ? pool.lease(0) : new byte[0x100];
+    }
+
+    @Override
+    public SerializerFactory<T> getSerializerFactory() {
+        return serializerFactory;
+    }
+
+    @Override
+    public T getContext() {
+        return context;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() throws UncheckedIOException {
+        return position + count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void reset() {
+        reset(0);
+    }
+
+    public void reset(int position) {
+        if (buffer == null)
+            throw new IllegalStateException("Buffer is closed");
+
+        this.position = position;
+        this.count = 0;
+        if (exposed)
+            replace(pool != null ? pool.lease(0) : new byte[0x100]);
+    }
+
+    private void replace(byte[] grown) {
+        if (pool != null && !exposed)
+            pool.release(buffer);
+        buffer = grown;
+        exposed = false;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer == null)
+            throw new IllegalStateException("Buffer is closed");
+
+        int required = count + extra;
+        if (required < 0)
+            throw new SerializerException("Output is too large");
+        if (required <= buffer.length)
+            return;
+
+        int capacity = Math.max(required, buffer.length << 1);
+        if (capacity < 0)
+            capacity = required;
+        byte[] grown = pool != null ? pool.lease(capacity) : new byte[capacity];
+        System.arraycopy(buffer, 0, grown, 0, count);
+        replace(grown);
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void writeBuffer(ByteBuffer src) throws UncheckedIOException {
+        int len = src.remaining();
+        ensureCapacity(len);
+        src.duplicate().get(buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void writeShort(int v) throws UncheckedIOException {
+        ensureCapacity(2);
+        buffer[count++] = (byte) v;
+        buffer[count++] = (byte) (v >> 8);
+    }
+
+    @Override
+    public void writeInt(int v) throws UncheckedIOException {
+        ensureCapacity(4);
+        buffer[count++] = (byte) v;
+        buffer[count++] = (byte) (v >> 8);
+        buffer[count++] = (byte) (v >> 16);
+        buffer[count++] = (byte) (v >> 24);
+    }
+
+    @Override
+    public void writeCompactInt(int v) throws UncheckedIOException {
+        ensureCapacity(5);
+        int value = Math.abs(v);
+        int b = (v < 0 ? 0x80 : 0) | (value & 0x3f);
+        value >>>= 6;
+        if (value == 0) {
+            buffer[count++] = (byte) b;
+            return;
+        }
+        buffer[count++] = (byte) (b | 0x40);
+        while ((value & ~0x7f) != 0) {
+            buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    @Override
+    public void writeLong(long v) throws UncheckedIOException {
+        writeInt((int) v);
+        writeInt((int) (v >> 32));
+    }
+
+    @Override
+    public void writeFloat(float v) throws UncheckedIOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    // The view shares the current array, which is therefore never returned to the pool or written again.
+    public ByteBuffer toByteBuffer() {
+        if (buffer == null)
+            throw new IllegalStateException("Buffer is closed");
+
+        exposed = true;
+        return ByteBuffer.wrap(buffer, 0, count).asReadOnlyBuffer();
+    }
+
+    public void writeTo(OutputStream out) throws UncheckedIOException {
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void writeTo(ObjectOutput<?> output) throws UncheckedIOException {
+        output.writeBytes(buffer, 0, count);
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null && pool != null && !exposed)
+            pool.release(buffer);
+        buffer = null;
+        count = 0;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.io.annotation.CacheEncoded;
+import acmi.l2.clientmod.io.annotation.Length;
+import acmi.l2.clientmod.io.annotation.Subtypes;
+
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+public class ParallelObjectWriter<C extends Context> {
+    private final ReflectionSerializerFactory<C> serializerFactory;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final int maxDepth;
+
+    private final Map<Class, Optional<List<Part>>> plans = new ConcurrentHashMap<>();
+
+    public ParallelObjectWriter(ReflectionSerializerFactory<C> serializerFactory) {
+        this(serializerFactory, ForkJoinPool.commonPool(), 0x400, 3);
+    }
+
+    public ParallelObjectWriter(ReflectionSerializerFactory<C> serializerFactory, ForkJoinPool pool, int threshold, int maxDepth) {
+        if (!serializerFactory.isShared())
+            throw new IllegalArgumentException("ParallelObjectWriter requires a shared ReflectionSerializerFactory, " + serializerFactory.getClass() + " is not thread-safe");
+
+        this.serializerFactory = serializerFactory;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.maxDepth = maxDepth;
+    }
+
+    public void write(Object object, ObjectOutput<C> output) throws UncheckedIOException {
+        List<byte[]> segments;
+        try {
+            segments = pool.invoke(new ObjectTask(object, output, 0, output.getPosition()));
+        } catch (RuntimeException e) {
+            if (!positionDependent(e))
+                throw e;
+
+            Serializer serializer = serializerFactory.forClass(object.getClass());
+            serializer.writeObject(object, output);
+            return;
+        }
+        for (byte[] segment : segments)
+            output.writeBytes(segment, 0, segment.length);
+    }
+
+    private static boolean positionDependent(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof UnknownPosition)
+                return true;
+        }
+        return false;
+    }
+
+    private List<Part> plan(Class<?> type) {
+        return plans.computeIfAbsent(type, t -> Optional.ofNullable(createPlan(t))).orElse(null);
+    }
+
+    private List<Part> createPlan(Class<?> type) {
+        if (!(serializerFactory.forClass(type) instanceof ReflectionSerializerFactory.SerializerImpl) ||
+                type.isAnnotationPresent(CacheEncoded.class) ||
+                !serializerFactory.nullableFields(type).isEmpty())
+            return null;
+
+        List<Part> parts = new ArrayList<>();
+        for (Class<?> level : serializerFactory.getHierarchy(type)) {
+            if (serializerFactory.hasMethods(level)) {
+                List<BiConsumer<Object, ObjectOutput<C>>> write = new ArrayList<>();
+                serializerFactory.buildForLevel(level, new ArrayList<>(), write);
+                parts.add(new LeafPart(write));
+                continue;
+            }
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!serializerFactory.validField(field))
+                    continue;
+
+                if (nested(field.getType()) && field.getAnnotations().length == 0) {
+                    field.setAccessible(true);
+                    parts.add(new ObjectPart(field));
+                } else if (field.getType().isArray() && nested(field.getType().getComponentType()) && onlyLength(field)) {
+                    field.setAccessible(true);
+                    ArrayPart part = new ArrayPart(field, serializerFactory.lengthWriter(field.getAnnotation(Length.class)));
+                    serializerFactory.serializer(field.getType().getComponentType(),
+                            cell -> cell[0], (cell, val) -> cell[0] = val.get(),
+                            field::getAnnotation,
+                            new ArrayList<>(), part.elementWrite);
+                    parts.add(part);
+                } else {
+                    List<BiConsumer<Object, ObjectOutput<C>>> write = new ArrayList<>();
+                    serializerFactory.handleField(field, new ArrayList<>(), write);
+                    parts.add(new LeafPart(write));
+                }
+            }
+        }
+        return parts;
+    }
+
+    private static boolean nested(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && !type.isEnum() && !type.isAnnotationPresent(Subtypes.class) &&
+                type != EnumSet.class && type != EnumMap.class &&
+                type != String.class && type != ByteBuffer.class &&
+                type != Byte.class && type != Short.class && type != Integer.class &&
+                type != Long.class && type != Float.class;
+    }
+
+    private static boolean onlyLength(Field field) {
+        return field.getAnnotations().length == (field.isAnnotationPresent(Length.class) ? 1 : 0);
+    }
+
+    private abstract class Part {
+        abstract void write(Object obj, Segments segments, int depth);
+    }
+
+    private class LeafPart extends Part {
+        final List<BiConsumer<Object, ObjectOutput<C>>> actions;
+
+        LeafPart(List<BiConsumer<Object, ObjectOutput<C>>> actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        void write(Object obj, Segments segments, int depth) {
+            ObjectOutput<C> output = segments.current();
+            for (BiConsumer<Object, ObjectOutput<C>> action : actions)
+                action.accept(obj, output);
+        }
+    }
+
+    private class ObjectPart extends Part {
+        final Field field;
+
+        ObjectPart(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        void write(Object obj, Segments segments, int depth) {
+            Object value = ReflectionUtil.fieldGet(field, obj);
+            if (value == null)
+                throw new SerializerException(field + " is null");
+            if (depth < maxDepth) {
+                segments.fork(new ObjectTask(value, segments.template, depth + 1, -1));
+            } else {
+                Serializer serializer = serializerFactory.forClass(value.getClass());
+                serializer.writeObject(value, segments.current());
+            }
+        }
+    }
+
+    private class ArrayPart extends Part {
+        final Field field;
+        final BiConsumer<DataOutput, Integer> lenWriter;
+        final List<BiConsumer<Object[], ObjectOutput<C>>> elementWrite = new ArrayList<>();
+
+        ArrayPart(Field field, BiConsumer<DataOutput, Integer> lenWriter) {
+            this.field = field;
+            this.lenWriter = lenWriter;
+        }
+
+        @Override
+        void write(Object obj, Segments segments, int depth) {
+            Object[] array = (Object[]) ReflectionUtil.fieldGet(field, obj);
+            lenWriter.accept(segments.current(), array.length);
+            if (array.length < threshold) {
+                writeElements(array, 0, array.length, segments.current());
+                return;
+            }
+            for (int off = 0; off < array.length; off += threshold)
+                segments.fork(new ElementsTask(this, array, off, Math.min(threshold, array.length - off), segments.template));
+        }
+
+        void writeElements(Object[] array, int off, int len, ObjectOutput<C> output) {
+            Object[] cell = new Object[1];
+            for (int i = off; i < off + len; i++) {
+                cell[0] = array[i];
+                for (BiConsumer<Object[], ObjectOutput<C>> action : elementWrite)
+                    action.accept(cell, output);
+            }
+        }
+    }
+
+    private class Segments {
+        final ObjectOutput<C> template;
+        final List<Object> parts = new ArrayList<>();
+        int position;
+        ObjectOutputBuffer<C> buffer;
+
+        Segments(ObjectOutput<C> template, int position) {
+            this.template = template;
+            this.position = position;
+        }
+
+        ObjectOutput<C> current() {
+            if (buffer == null)
+                buffer = new SegmentBuffer<>(template, position);
+            return buffer;
+        }
+
+        void fork(RecursiveTask<List<byte[]>> task) {
+            flush();
+            position = -1;
+            parts.add(task.fork());
+        }
+
+        void flush() {
+            if (buffer != null) {
+                if (position >= 0)
+                    position = buffer.getPosition();
+                parts.add(buffer.toByteArray());
+                buffer.close();
+                buffer = null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<byte[]> join() {
+            flush();
+            List<byte[]> result = new ArrayList<>();
+            for (Object part : parts) {
+                if (part instanceof byte[])
+                    result.add((byte[]) part);
+                else
+                    result.addAll(((RecursiveTask<List<byte[]>>) part).join());
+            }
+            return result;
+        }
+    }
+
+    private class ObjectTask extends RecursiveTask<List<byte[]>> {
+        final Object object;
+        final ObjectOutput<C> template;
+        final int depth;
+        final int position;
+
+        ObjectTask(Object object, ObjectOutput<C> template, int depth, int position) {
+            this.object = object;
+            this.template = template;
+            this.depth = depth;
+            this.position = position;
+        }
+
+        @Override
+        protected List<byte[]> compute() {
+            Segments segments = new Segments(template, position);
+            List<Part> parts = plan(object.getClass());
+            if (parts == null) {
+                Serializer serializer = serializerFactory.forClass(object.getClass());
+                serializer.writeObject(object, segments.current());
+            } else {
+                for (Part part : parts)
+                    part.write(object, segments, depth);
+            }
+            return segments.join();
+        }
+    }
+
+    private class ElementsTask extends RecursiveTask<List<byte[]>> {
+        final ArrayPart part;
+        final Object[] array;
+        final int off;
+        final int len;
+        final ObjectOutput<C> template;
+
+        ElementsTask(ArrayPart part, Object[] array, int off, int len, ObjectOutput<C> template) {
+            this.part = part;
+            this.array = array;
+            this.off = off;
+            this.len = len;
+            this.template = template;
+        }
+
+        @Override
+        protected List<byte[]> compute() {
+            Segments segments = new Segments(template, -1);
+            part.writeElements(array, off, len, segments.current());
+            return segments.join();
+        }
+    }
+
+    private static class SegmentBuffer<C extends Context> extends ObjectOutputBuffer<C> {
+        private final boolean known;
+
+        SegmentBuffer(ObjectOutput<C> template, int position) {
+            super(template.getCharset(), Math.max(position, 0), template.getSerializerFactory(), template.getContext(), BufferPool.getDefault());
+            this.known = position >= 0;
+        }
+
+        @Override
+        public int getPosition() throws UncheckedIOException {
+            if (!known)
+                throw new UnknownPosition();
+            return super.getPosition();
+        }
+    }
+
+    private static class UnknownPosition extends RuntimeException {
+        UnknownPosition() {
+            super("Absolute position is not known inside a parallel segment", null, false, false);
+        }
+    }
+}
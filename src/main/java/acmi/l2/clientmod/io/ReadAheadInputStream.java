@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+public class ReadAheadInputStream extends InputStream {
+    private static final ThreadFactory DEFAULT_THREAD_FACTORY = r -> {
+        Thread thread = new Thread(r, "ReadAhead");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final InputStream in;
+    private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(3);
+    private final Thread thread;
+
+    private volatile Throwable failure;
+
+    private Block current;
+    private int position;
+    private boolean closed;
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, 0x10000);
+    }
+
+    public ReadAheadInputStream(InputStream in, int blockSize) {
+        this(in, blockSize, DEFAULT_THREAD_FACTORY);
+    }
+
+    public ReadAheadInputStream(InputStream in, int blockSize, ThreadFactory threadFactory) {
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+
+        this.in = in;
+        free.add(new Block(blockSize));
+        free.add(new Block(blockSize));
+        this.thread = threadFactory.newThread(this::fill);
+        this.thread.start();
+    }
+
+    private void fill() {
+        try {
+            while (true) {
+                Block block = free.take();
+                int n = 0;
+                while (n < block.data.length) {
+                    int r = in.read(block.data, n, block.data.length - n);
+                    if (r < 0)
+                        break;
+                    n += r;
+                }
+                block.length = n;
+                if (n > 0)
+                    filled.put(block);
+                if (n < block.data.length) {
+                    filled.put(Block.END);
+                    return;
+                }
+            }
+        } catch (InterruptedException ignore) {
+        } catch (Throwable e) {
+            failure = e;
+            try {
+                filled.put(Block.ERROR);
+            } catch (InterruptedException ignore) {
+            }
+        }
+    }
+
+    private boolean next() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (current != null && position < current.length)
+            return true;
+        if (current == Block.END)
+            return false;
+        if (current == Block.ERROR)
+            throw new IOException(failure);
+        if (current != null)
+            free.add(current);
+
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        position = 0;
+        if (current == Block.ERROR)
+            throw new IOException(failure);
+        return current != Block.END;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!next())
+            return -1;
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!next())
+            return -1;
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null && !closed ? current.length - position : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        thread.interrupt();
+        in.close();
+    }
+
+    private static class Block {
+        static final Block END = new Block(0);
+        static final Block ERROR = new Block(0);
+
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public class ReferenceTable<T> {
+    private Object[] values;
+    private int size;
+
+    private Object[] keys;
+    private int[] indices;
+
+    private Map<Object, Integer> byValue;
+
+    public ReferenceTable() {
+        this(Collections.emptyList());
+    }
+
+    public ReferenceTable(Collection<? extends T> values) {
+        this.values = new Object[Math.max(values.size(), 16)];
+        this.keys = new Object[Integer.highestOneBit(this.values.length) << 2];
+        this.indices = new int[keys.length];
+        for (T value : values)
+            append(value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size)
+            throw new SerializerException("Reference index " + index + " out of range [0, " + size + ")");
+
+        return (T) values[index];
+    }
+
+    public int indexOf(Object value) {
+        if (value == null)
+            return -1;
+
+        int mask = keys.length - 1;
+        for (int i = hash(value) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == value)
+                return indices[i];
+        }
+
+        if (byValue == null) {
+            byValue = new HashMap<>();
+            for (int i = size - 1; i >= 0; i--)
+                byValue.put(values[i], i);
+        }
+        Integer index = byValue.get(value);
+        return index != null ? index : -1;
+    }
+
+    public int add(T value) {
+        int index = indexOf(value);
+        return index >= 0 ? index : append(value);
+    }
+
+    private int append(T value) {
+        Objects.requireNonNull(value);
+
+        if (size == values.length)
+            values = Arrays.copyOf(values, size << 1);
+        int index = size++;
+        values[index] = value;
+
+        if (size << 1 > keys.length)
+            rehash(keys.length << 1);
+        insert(value, index);
+
+        if (byValue != null)
+            byValue.putIfAbsent(value, index);
+        return index;
+    }
+
+    private void insert(Object value, int index) {
+        int mask = keys.length - 1;
+        int i = hash(value) & mask;
+        while (keys[i] != null) {
+            if (keys[i] == value)
+                return;
+            i = (i + 1) & mask;
+        }
+        keys[i] = value;
+        indices[i] = index;
+    }
+
+    private void rehash(int capacity) {
+        keys = new Object[capacity];
+        indices = new int[capacity];
+        for (int i = 0; i < size; i++)
+            insert(values[i], i);
+    }
+
+    private static int hash(Object value) {
+        int h = System.identityHashCode(value) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -23,31 +23,97 @@ package acmi.l2.clientmod.io;
 
 import acmi.l2.clientmod.io.annotation.*;
 
+import java.io.EOFException;
 import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 public class ReflectionSerializerFactory<C extends Context> implements SerializerFactory<C> {
     protected final Map<Class, Serializer> cache = new HashMap<>();
+    protected final Map<Class, SubtypeTable> subtypes = new HashMap<>();
+    protected final Map<Class, FixedLayout> layouts = new HashMap<>();
+
+    private static final ReflectionSerializerFactory SHARED = new ReflectionSerializerFactory();
+    private static final ClassValue<Serializer> SHARED_SERIALIZERS = new ClassValue<Serializer>() {
+        @Override
+        protected Serializer computeValue(Class<?> type) {
+            return SHARED.buildShared(type);
+        }
+    };
+    private static final ClassValue<Serializer> SHARED_CUSTOM = new ClassValue<Serializer>() {
+        @Override
+        protected Serializer computeValue(Class<?> type) {
+            return (Serializer) ReflectionUtil.instantiate(type);
+        }
+    };
+    private static final ClassValue<SubtypeTable> SHARED_SUBTYPES = new ClassValue<SubtypeTable>() {
+        @Override
+        protected SubtypeTable computeValue(Class<?> type) {
+            return new SubtypeTable(type, SHARED::forClass);
+        }
+    };
+    private static final ClassValue<EnumTable> ENUM_TABLES = new ClassValue<EnumTable>() {
+        @Override
+        protected EnumTable computeValue(Class<?> type) {
+            return new EnumTable(type);
+        }
+    };
+    private static final ClassValue<FixedLayout> SHARED_LAYOUTS = new ClassValue<FixedLayout>() {
+        @Override
+        protected FixedLayout computeValue(Class<?> type) {
+            return SHARED.createLayout(type);
+        }
+    };
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> Serializer<T, C> forClass(Class<T> clazz) {
         if (!cache.containsKey(clazz)) {
+            if (isShared())
+                return SHARED_SERIALIZERS.get(clazz);
             createForClass(clazz);
         }
         return cache.get(clazz);
     }
 
+    protected boolean isShared() {
+        return getClass() == ReflectionSerializerFactory.class && cache.isEmpty();
+    }
+
+    private Serializer buildShared(Class<?> clazz) {
+        List<BiConsumer<Object, ObjectInput<C>>> readActions = new ArrayList<>();
+        List<BiConsumer<Object, ObjectOutput<C>>> writeActions = new ArrayList<>();
+
+        Serializer<?, C> serializer = createSerializer(clazz, readActions, writeActions);
+
+        buildForClass(clazz, readActions, writeActions);
+
+        return serializer;
+    }
+
     protected void createForClass(Class<?> clazz) {
         List<BiConsumer<Object, ObjectInput<C>>> readActions = new ArrayList<>();
         List<BiConsumer<Object, ObjectOutput<C>>> writeActions = new ArrayList<>();
@@ -63,25 +129,244 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
         return new SerializerImpl(clazz, readActions, writeActions);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deepCopy(T object, C context) {
+        return (T) copyValue(object, context);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Object copyValue(Object value, C context) {
+        if (value == null || value instanceof Number || value instanceof String || value instanceof Enum)
+            return value;
+        if (value instanceof EnumSet)
+            return ((EnumSet) value).clone();
+        if (value instanceof EnumMap) {
+            EnumMap<?, Object> copy = new EnumMap<>((EnumMap<?, Object>) value);
+            copy.replaceAll((key, val) -> copyValue(val, context));
+            return copy;
+        }
+
+        Class<?> type = value.getClass();
+        if (type.isArray()) {
+            if (type.getComponentType().isPrimitive()) {
+                int length = Array.getLength(value);
+                Object copy = Array.newInstance(type.getComponentType(), length);
+                System.arraycopy(value, 0, copy, 0, length);
+                return copy;
+            }
+            Object[] array = (Object[]) value;
+            Object[] copy = (Object[]) Array.newInstance(type.getComponentType(), array.length);
+            for (int i = 0; i < array.length; i++)
+                copy[i] = copyValue(array[i], context);
+            return copy;
+        }
+        if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+            copy.put(buffer.duplicate()).flip();
+            return buffer.isReadOnly() ? copy.asReadOnlyBuffer().order(buffer.order()) : copy.order(buffer.order());
+        }
+
+        Serializer serializer = forClass(type);
+        if (!(serializer instanceof ReflectionSerializerFactory.SerializerImpl))
+            return roundTrip(serializer, value, context);
+        List<Class<?>> hierarchy = getHierarchy(type);
+        for (Class<?> level : hierarchy) {
+            if (hasMethods(level))
+                return roundTrip(serializer, value, context);
+        }
+
+        Object copy = ReflectionUtil.instantiate(type);
+        for (Class<?> level : hierarchy) {
+            for (Field field : level.getDeclaredFields()) {
+                if (!validField(field))
+                    continue;
+
+                field.setAccessible(true);
+                Object fieldValue = ReflectionUtil.fieldGet(field, value);
+                Custom custom = field.getAnnotation(Custom.class);
+                if (field.isAnnotationPresent(ObjectRef.class)) {
+                    ReflectionUtil.fieldSet(field, copy, fieldValue instanceof Object[] ? ((Object[]) fieldValue).clone() : fieldValue);
+                } else if (custom != null && fieldValue != null) {
+                    ReflectionUtil.fieldSet(field, copy, roundTrip(customSerializer(custom.value()), fieldValue, context));
+                } else {
+                    ReflectionUtil.fieldSet(field, copy, copyValue(fieldValue, context));
+                }
+            }
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Object roundTrip(Serializer serializer, Object value, C context) {
+        try (ObjectOutputBuffer<C> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), this, context)) {
+            serializer.writeObject(value, output);
+            ObjectInput<C> input = new ObjectInputBuffer<>(ByteBuffer.wrap(output.toByteArray()), UnrealPackage.getDefaultCharset(), this, context);
+            Object copy = serializer instanceof ReflectionSerializerFactory.SerializerImpl ?
+                    ReflectionUtil.instantiate(value.getClass()) : serializer.instantiate(input);
+            serializer.readObject(copy, input);
+            return copy;
+        }
+    }
+
     protected Function<ObjectInput<C>, Object> createInstantiator(Class<?> clazz) {
         return input -> ReflectionUtil.instantiate(clazz);
     }
 
+    protected Serializer customSerializer(Class<? extends Serializer> clazz) {
+        if (!cache.containsKey(clazz)) {
+            if (isShared())
+                return SHARED_CUSTOM.get(clazz);
+            cache.put(clazz, ReflectionUtil.instantiate(clazz));
+        }
+        return cache.get(clazz);
+    }
+
+    protected EnumTable enumTable(Class<?> clazz) {
+        return ENUM_TABLES.get(clazz);
+    }
+
+    protected SubtypeTable subtypeTable(Class<?> clazz) {
+        if (isShared())
+            return SHARED_SUBTYPES.get(clazz);
+        if (!subtypes.containsKey(clazz)) {
+            subtypes.put(clazz, new SubtypeTable(clazz, this::forClass));
+        }
+        return subtypes.get(clazz);
+    }
+
+    @SuppressWarnings("unchecked")
     protected BiConsumer<Object, ObjectInput<C>> createReader(Class<?> clazz, List<BiConsumer<Object, ObjectInput<C>>> readActions) {
-        return (obj, input) -> readActions.forEach(action -> action.accept(obj, input));
+        BiConsumer<Object, ObjectInput<C>>[] actions = readActions.toArray(new BiConsumer[readActions.size()]);
+        return (obj, input) -> {
+            for (BiConsumer<Object, ObjectInput<C>> action : actions)
+                action.accept(obj, input);
+        };
     }
 
+    @SuppressWarnings("unchecked")
     protected BiConsumer<Object, ObjectOutput<C>> createWriter(Class<?> clazz, List<BiConsumer<Object, ObjectOutput<C>>> writeActions) {
-        return (obj, output) -> writeActions.forEach(action -> action.accept(obj, output));
+        BiConsumer<Object, ObjectOutput<C>>[] actions = writeActions.toArray(new BiConsumer[writeActions.size()]);
+        BiConsumer<Object, ObjectOutput<C>> writer = (obj, output) -> {
+            for (BiConsumer<Object, ObjectOutput<C>> action : actions)
+                action.accept(obj, output);
+        };
+
+        CacheEncoded cacheEncoded = clazz.getAnnotation(CacheEncoded.class);
+        if (cacheEncoded == null)
+            return writer;
+        if (!positionIndependent(clazz, new HashSet<>()))
+            throw new SerializerException("@CacheEncoded " + clazz + " uses read/write methods or custom serializers, its encoding may depend on the output position");
+
+        EncodedCache cache = new EncodedCache(cacheEncoded.maxBytes());
+        return (obj, output) -> {
+            byte[] bytes = cache.get(obj, output.getCharset(), output.getContext());
+            if (bytes == null) {
+                try (ObjectOutputBuffer<C> buffer = new ObjectOutputBuffer<>(output.getCharset(), output.getSerializerFactory(), output.getContext())) {
+                    writer.accept(obj, buffer);
+                    bytes = buffer.toByteArray();
+                }
+                cache.put(obj, output.getCharset(), output.getContext(), bytes);
+            }
+            output.writeBytes(bytes, 0, bytes.length);
+        };
     }
 
     protected <T> void buildForClass(Class<?> clazz, List<BiConsumer<T, ObjectInput<C>>> read, List<BiConsumer<T, ObjectOutput<C>>> write) {
-        if (clazz.getSuperclass() != null && clazz.getSuperclass() != Object.class) {
-            Serializer superIO = forClass(clazz.getSuperclass());
-            read.add(superIO::readObject);
-            write.add(superIO::writeObject);
+        List<Field> nullable = nullableFields(clazz);
+        if (nullable.isEmpty()) {
+            for (Class<?> level : getHierarchy(clazz)) {
+                buildForLevel(level, read, write);
+            }
+            return;
+        }
+
+        List<Integer> bits = new ArrayList<>();
+        List<List<BiConsumer<T, ObjectInput<C>>>> reads = new ArrayList<>();
+        List<List<BiConsumer<T, ObjectOutput<C>>>> writes = new ArrayList<>();
+        for (Class<?> level : getHierarchy(clazz)) {
+            if (hasMethods(level)) {
+                bits.add(-1);
+                reads.add(new ArrayList<>());
+                writes.add(new ArrayList<>());
+                buildForLevel(level, reads.get(reads.size() - 1), writes.get(writes.size() - 1));
+                continue;
+            }
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!validField(field))
+                    continue;
+
+                bits.add(nullable.indexOf(field));
+                reads.add(new ArrayList<>());
+                writes.add(new ArrayList<>());
+                handleField(field, reads.get(reads.size() - 1), writes.get(writes.size() - 1));
+            }
+        }
+
+        Field[] fields = nullable.toArray(new Field[nullable.size()]);
+        int words = (fields.length + 63) >>> 6;
+        read.add((object, dataInput) -> {
+            long[] masks = new long[words];
+            for (int i = 0; i < words; i++)
+                masks[i] = dataInput.readVarLong();
+            for (int i = 0; i < reads.size(); i++) {
+                int bit = bits.get(i);
+                if (bit >= 0 && (masks[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                    ReflectionUtil.fieldSet(fields[bit], object, null);
+                    continue;
+                }
+                for (BiConsumer<T, ObjectInput<C>> action : reads.get(i))
+                    action.accept(object, dataInput);
+            }
+        });
+        write.add((object, dataOutput) -> {
+            long[] masks = new long[words];
+            for (int bit = 0; bit < fields.length; bit++) {
+                if (ReflectionUtil.fieldGet(fields[bit], object) != null)
+                    masks[bit >>> 6] |= 1L << (bit & 63);
+            }
+            for (long mask : masks)
+                dataOutput.writeVarLong(mask);
+            for (int i = 0; i < writes.size(); i++) {
+                int bit = bits.get(i);
+                if (bit >= 0 && (masks[bit >>> 6] & (1L << (bit & 63))) == 0)
+                    continue;
+                for (BiConsumer<T, ObjectOutput<C>> action : writes.get(i))
+                    action.accept(object, dataOutput);
+            }
+        });
+    }
+
+    protected List<Field> nullableFields(Class<?> clazz) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> level : getHierarchy(clazz)) {
+            if (hasMethods(level))
+                continue;
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!validField(field) || !field.isAnnotationPresent(Nullable.class))
+                    continue;
+
+                if (field.getType().isPrimitive())
+                    throw new SerializerException("@Nullable is not supported for primitive field " + field);
+                field.setAccessible(true);
+                fields.add(field);
+            }
         }
+        return fields;
+    }
 
+    protected List<Class<?>> getHierarchy(Class<?> clazz) {
+        LinkedList<Class<?>> hierarchy = new LinkedList<>();
+        for (Class<?> level = clazz; level != null && level != Object.class; level = level.getSuperclass()) {
+            hierarchy.addFirst(level);
+        }
+        return hierarchy;
+    }
+
+    protected <T> void buildForLevel(Class<?> clazz, List<BiConsumer<T, ObjectInput<C>>> read, List<BiConsumer<T, ObjectOutput<C>>> write) {
         List<BiConsumer<T, ObjectInput<C>>> read1 = new ArrayList<>();
         List<BiConsumer<T, ObjectOutput<C>>> write1 = new ArrayList<>();
         for (Field field : clazz.getDeclaredFields()) {
@@ -108,6 +393,121 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
         if (!writeMethod) write.addAll(write1);
     }
 
+    protected boolean hasMethods(Class<?> clazz) {
+        for (Method method : clazz.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(ReadMethod.class) || method.isAnnotationPresent(WriteMethod.class))
+                return true;
+        }
+        return false;
+    }
+
+    protected boolean positionIndependent(Class<?> clazz, Set<Class<?>> visited) {
+        if (clazz.isArray())
+            return positionIndependent(clazz.getComponentType(), visited);
+        if (clazz.isPrimitive() || clazz.isEnum() || clazz.getName().startsWith("java.") || !visited.add(clazz))
+            return true;
+
+        Subtypes subtypes = clazz.getAnnotation(Subtypes.class);
+        if (subtypes != null) {
+            for (Subtype subtype : subtypes.value()) {
+                if (!positionIndependent(subtype.value(), visited))
+                    return false;
+            }
+        }
+        for (Class<?> level : getHierarchy(clazz)) {
+            if (hasMethods(level))
+                return false;
+            for (Field field : level.getDeclaredFields()) {
+                if (!validField(field) || field.isAnnotationPresent(ObjectRef.class) || field.isAnnotationPresent(NameRef.class))
+                    continue;
+                if (field.isAnnotationPresent(Custom.class) || !positionIndependent(field.getType(), visited))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    public FixedLayout layoutForClass(Class<?> clazz) {
+        if (isShared())
+            return SHARED_LAYOUTS.get(clazz);
+        if (!layouts.containsKey(clazz)) {
+            layouts.put(clazz, createLayout(clazz));
+        }
+        return layouts.get(clazz);
+    }
+
+    public <T> Flyweight<T> flyweight(Class<T> clazz, ByteBuffer buffer) {
+        FixedLayout layout = layoutForClass(clazz);
+        if (layout == null)
+            throw new SerializerException(clazz + " has no fixed layout");
+        return new Flyweight<>(layout, buffer);
+    }
+
+    protected FixedLayout createLayout(Class<?> clazz) {
+        if (clazz.isAnnotationPresent(Subtypes.class))
+            return null;
+
+        List<Field> fields = new ArrayList<>();
+        List<Integer> widths = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        for (Class<?> level : getHierarchy(clazz)) {
+            if (hasMethods(level))
+                return null;
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!validField(field))
+                    continue;
+                if (field.isAnnotationPresent(Custom.class))
+                    return null;
+
+                Class<?> type = field.getType();
+                int length = -1;
+                if (type.isArray()) {
+                    Length l = field.getAnnotation(Length.class);
+                    if (l == null || l.value() != Length.Type.CONST)
+                        return null;
+                    length = l.length();
+                    type = type.getComponentType();
+                }
+                int width = fixedWidth(type, field::getAnnotation);
+                if (width < 0)
+                    return null;
+
+                field.setAccessible(true);
+                fields.add(field);
+                widths.add(width);
+                lengths.add(length);
+            }
+        }
+        return new FixedLayout(clazz, fields, widths, lengths);
+    }
+
+    protected int fixedWidth(Class<?> type, Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (getAnnotation.apply(Compact.class) != null ||
+                getAnnotation.apply(VarInt.class) != null ||
+                getAnnotation.apply(ZigZag.class) != null ||
+                getAnnotation.apply(Delta.class) != null ||
+                getAnnotation.apply(Nullable.class) != null)
+            return -1;
+
+        if (type == Byte.TYPE)
+            return 1;
+        if (type == Short.TYPE)
+            return 2;
+        if (type == Integer.TYPE) {
+            if (getAnnotation.apply(UShort.class) != null)
+                return 2;
+            if (getAnnotation.apply(UByte.class) != null)
+                return 1;
+            return 4;
+        }
+        if (type == Long.TYPE)
+            return 8;
+        if (type == Float.TYPE)
+            return 4;
+        return -1;
+    }
+
     protected boolean validField(Field field) {
         return !Modifier.isStatic(field.getModifiers()) &&
                 !Modifier.isTransient(field.getModifiers()) &&
@@ -119,16 +519,28 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
 
         Custom custom = field.getAnnotation(Custom.class);
         if (custom != null) {
-            if (!cache.containsKey(custom.value())) {
-                cache.put(custom.value(), ReflectionUtil.instantiate(custom.value()));
-            }
-            Serializer customSerializer = cache.get(custom.value());
+            Serializer customSerializer = customSerializer(custom.value());
             readActions.add((object, input) -> {
                 Object obj = customSerializer.instantiate(input);
                 customSerializer.readObject(obj, input);
                 ReflectionUtil.fieldSet(field, object, obj);
             });
             writeActions.add((object, output) -> customSerializer.writeObject(ReflectionUtil.fieldGet(field, object), output));
+        } else if (field.getType().isPrimitive() && primitiveField(field, readActions, writeActions)) {
+            return;
+        } else if (field.getType() == EnumSet.class) {
+            enumSet(typeArgument(field, 0),
+                    object -> ReflectionUtil.fieldGet(field, object),
+                    (obj, val) -> ReflectionUtil.fieldSet(field, obj, val.get()),
+                    readActions,
+                    writeActions);
+        } else if (field.getType() == EnumMap.class) {
+            enumMap(typeArgument(field, 0), typeArgument(field, 1),
+                    object -> ReflectionUtil.fieldGet(field, object),
+                    (obj, val) -> ReflectionUtil.fieldSet(field, obj, val.get()),
+                    field::getAnnotation,
+                    readActions,
+                    writeActions);
         } else {
             serializer(field.getType(),
                     object -> ReflectionUtil.fieldGet(field, object),
@@ -139,34 +551,282 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
         }
     }
 
+    protected <T> boolean primitiveField(Field field, List<BiConsumer<T, ObjectInput<C>>> read, List<BiConsumer<T, ObjectOutput<C>>> write) {
+        Class<?> type = field.getType();
+        if (field.isAnnotationPresent(NameRef.class) || field.isAnnotationPresent(ObjectRef.class))
+            return false;
+
+        if (type == Byte.TYPE) {
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, field::getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, field::getAnnotation);
+            read.add((object, dataInput) -> ReflectionUtil.fieldSetByte(field, object, (byte) reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, ReflectionUtil.fieldGetByte(field, object)));
+        } else if (type == Short.TYPE) {
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, field::getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, field::getAnnotation);
+            read.add((object, dataInput) -> ReflectionUtil.fieldSetShort(field, object, (short) reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, ReflectionUtil.fieldGetShort(field, object)));
+        } else if (type == Integer.TYPE) {
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, field::getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, field::getAnnotation);
+            read.add((object, dataInput) -> ReflectionUtil.fieldSetInt(field, object, reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, ReflectionUtil.fieldGetInt(field, object)));
+        } else if (type == Long.TYPE) {
+            ToLongFunction<ObjectInput<C>> reader = longReader(field::getAnnotation);
+            ObjLongConsumer<ObjectOutput<C>> writer = longWriter(field::getAnnotation);
+            read.add((object, dataInput) -> ReflectionUtil.fieldSetLong(field, object, reader.applyAsLong(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, ReflectionUtil.fieldGetLong(field, object)));
+        } else if (type == Float.TYPE) {
+            read.add((object, dataInput) -> ReflectionUtil.fieldSetFloat(field, object, dataInput.readFloat()));
+            write.add((object, dataOutput) -> dataOutput.writeFloat(ReflectionUtil.fieldGetFloat(field, object)));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    protected ToIntFunction<ObjectInput<C>> intReader(Class<?> type, Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (type == Byte.TYPE || type == Byte.class)
+            return DataInput::readUnsignedByte;
+        if (type == Short.TYPE || type == Short.class) {
+            if (getAnnotation.apply(VarInt.class) != null)
+                return ObjectInput::readVarInt;
+            if (getAnnotation.apply(ZigZag.class) != null)
+                return ObjectInput::readZigZagInt;
+            return DataInput::readUnsignedShort;
+        }
+        if (getAnnotation.apply(Compact.class) != null)
+            return DataInput::readCompactInt;
+        if (getAnnotation.apply(VarInt.class) != null)
+            return ObjectInput::readVarInt;
+        if (getAnnotation.apply(ZigZag.class) != null)
+            return ObjectInput::readZigZagInt;
+        if (getAnnotation.apply(UShort.class) != null)
+            return DataInput::readUnsignedShort;
+        if (getAnnotation.apply(UByte.class) != null)
+            return DataInput::readUnsignedByte;
+        return DataInput::readInt;
+    }
+
+    protected ObjIntConsumer<ObjectOutput<C>> intWriter(Class<?> type, Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (type == Byte.TYPE || type == Byte.class)
+            return DataOutput::writeByte;
+        if (type == Short.TYPE || type == Short.class) {
+            if (getAnnotation.apply(VarInt.class) != null)
+                return (dataOutput, value) -> dataOutput.writeVarInt(value & 0xffff);
+            if (getAnnotation.apply(ZigZag.class) != null)
+                return ObjectOutput::writeZigZagInt;
+            return DataOutput::writeShort;
+        }
+        if (getAnnotation.apply(Compact.class) != null)
+            return DataOutput::writeCompactInt;
+        if (getAnnotation.apply(VarInt.class) != null)
+            return ObjectOutput::writeVarInt;
+        if (getAnnotation.apply(ZigZag.class) != null)
+            return ObjectOutput::writeZigZagInt;
+        if (getAnnotation.apply(UShort.class) != null)
+            return DataOutput::writeShort;
+        if (getAnnotation.apply(UByte.class) != null)
+            return DataOutput::writeByte;
+        return DataOutput::writeInt;
+    }
+
+    protected ToLongFunction<ObjectInput<C>> longReader(Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (getAnnotation.apply(VarInt.class) != null)
+            return ObjectInput::readVarLong;
+        if (getAnnotation.apply(ZigZag.class) != null)
+            return ObjectInput::readZigZagLong;
+        return DataInput::readLong;
+    }
+
+    protected ObjLongConsumer<ObjectOutput<C>> longWriter(Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (getAnnotation.apply(VarInt.class) != null)
+            return ObjectOutput::writeVarLong;
+        if (getAnnotation.apply(ZigZag.class) != null)
+            return ObjectOutput::writeZigZagLong;
+        return DataOutput::writeLong;
+    }
+
+    protected static Class<?> typeArgument(Field field, int index) {
+        Type type = field.getGenericType();
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[index];
+            if (argument instanceof Class)
+                return (Class<?>) argument;
+        }
+        throw new SerializerException("Cannot determine type argument " + index + " of " + field);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> void enumSet(Class enumType,
+                               Function<T, Object> getter, BiConsumer<T, Supplier> setter,
+                               List<BiConsumer<T, ObjectInput<C>>> read,
+                               List<BiConsumer<T, ObjectOutput<C>>> write) {
+        EnumTable table = enumTable(enumType);
+        if (table.isTagged()) {
+            read.add((object, dataInput) -> {
+                EnumSet set = EnumSet.noneOf(enumType);
+                int size = dataInput.checkLength(dataInput.readCompactInt(), 0);
+                for (int i = 0; i < size; i++)
+                    set.add(table.forTag(dataInput.readCompactInt()));
+                setter.accept(object, () -> set);
+            });
+            write.add((object, dataOutput) -> {
+                EnumSet<?> set = (EnumSet<?>) getter.apply(object);
+                dataOutput.writeCompactInt(set.size());
+                for (Enum<?> constant : set)
+                    dataOutput.writeCompactInt(table.tag(constant));
+            });
+        } else {
+            int words = (table.size() + 63) >>> 6;
+            read.add((object, dataInput) -> {
+                EnumSet set = EnumSet.noneOf(enumType);
+                for (int w = 0; w < words; w++) {
+                    for (long mask = dataInput.readVarLong(); mask != 0; mask &= mask - 1)
+                        set.add(table.forOrdinal((w << 6) + Long.numberOfTrailingZeros(mask)));
+                }
+                setter.accept(object, () -> set);
+            });
+            write.add((object, dataOutput) -> {
+                long[] masks = new long[words];
+                for (Enum<?> constant : (EnumSet<?>) getter.apply(object))
+                    masks[constant.ordinal() >>> 6] |= 1L << (constant.ordinal() & 63);
+                for (long mask : masks)
+                    dataOutput.writeVarLong(mask);
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T> void enumMap(Class keyType, Class valueType,
+                               Function<T, Object> getter, BiConsumer<T, Supplier> setter,
+                               Function<Class<? extends Annotation>, Annotation> getAnnotation,
+                               List<BiConsumer<T, ObjectInput<C>>> read,
+                               List<BiConsumer<T, ObjectOutput<C>>> write) {
+        EnumTable table = enumTable(keyType);
+        List<BiConsumer<Object[], ObjectInput<C>>> valueRead = new ArrayList<>();
+        List<BiConsumer<Object[], ObjectOutput<C>>> valueWrite = new ArrayList<>();
+        serializer(valueType, cell -> cell[0], (cell, val) -> cell[0] = val.get(), getAnnotation, valueRead, valueWrite);
+
+        read.add((object, dataInput) -> {
+            EnumMap map = new EnumMap(keyType);
+            Object[] cell = new Object[1];
+            if (table.isTagged()) {
+                int size = dataInput.checkLength(dataInput.readCompactInt(), 0);
+                for (int i = 0; i < size; i++) {
+                    Object key = table.forTag(dataInput.readCompactInt());
+                    for (BiConsumer<Object[], ObjectInput<C>> action : valueRead)
+                        action.accept(cell, dataInput);
+                    map.put(key, cell[0]);
+                }
+            } else {
+                long[] masks = new long[(table.size() + 63) >>> 6];
+                for (int w = 0; w < masks.length; w++)
+                    masks[w] = dataInput.readVarLong();
+                for (int w = 0; w < masks.length; w++) {
+                    for (long mask = masks[w]; mask != 0; mask &= mask - 1) {
+                        Object key = table.forOrdinal((w << 6) + Long.numberOfTrailingZeros(mask));
+                        for (BiConsumer<Object[], ObjectInput<C>> action : valueRead)
+                            action.accept(cell, dataInput);
+                        map.put(key, cell[0]);
+                    }
+                }
+            }
+            setter.accept(object, () -> map);
+        });
+        write.add((object, dataOutput) -> {
+            EnumMap<?, ?> map = (EnumMap<?, ?>) getter.apply(object);
+            Object[] cell = new Object[1];
+            if (table.isTagged()) {
+                dataOutput.writeCompactInt(map.size());
+            } else {
+                long[] masks = new long[(table.size() + 63) >>> 6];
+                for (Enum<?> key : map.keySet())
+                    masks[key.ordinal() >>> 6] |= 1L << (key.ordinal() & 63);
+                for (long mask : masks)
+                    dataOutput.writeVarLong(mask);
+            }
+            for (Map.Entry<? extends Enum<?>, ?> entry : map.entrySet()) {
+                if (table.isTagged())
+                    dataOutput.writeCompactInt(table.tag(entry.getKey()));
+                cell[0] = entry.getValue();
+                for (BiConsumer<Object[], ObjectOutput<C>> action : valueWrite)
+                    action.accept(cell, dataOutput);
+            }
+        });
+    }
+
     protected <T> void serializer(Class type,
                                   Function<T, Object> getter, BiConsumer<T, Supplier> setter,
                                   Function<Class<? extends Annotation>, Annotation> getAnnotation,
                                   List<BiConsumer<T, ObjectInput<C>>> read,
                                   List<BiConsumer<T, ObjectOutput<C>>> write) {
-        if (type == Byte.TYPE || type == Byte.class) {
-            read.add((object, dataInput) -> setter.accept(object, () -> (byte) dataInput.readUnsignedByte()));
-            write.add((object, dataOutput) -> dataOutput.writeByte(((Byte) getter.apply(object))));
+        if (!type.isArray() && getAnnotation.apply(NameRef.class) != null) {
+            if (type != String.class)
+                throw new SerializerException("@NameRef requires String, found " + type);
+
+            read.add((object, dataInput) -> setter.accept(object, () -> nameTable(dataInput.getContext()).get(dataInput.readCompactInt())));
+            write.add((object, dataOutput) -> {
+                Object value = getter.apply(object);
+                int index = nameTable(dataOutput.getContext()).indexOf(value);
+                if (index < 0)
+                    throw new SerializerException("Name " + value + " is not in the name table");
+                dataOutput.writeCompactInt(index);
+            });
+        } else if (!type.isArray() && getAnnotation.apply(ObjectRef.class) != null) {
+            if (type.isPrimitive())
+                throw new SerializerException("@ObjectRef requires a reference type, found " + type);
+
+            read.add((object, dataInput) -> setter.accept(object, () -> {
+                int index = dataInput.readCompactInt();
+                return index == 0 ? null : objectTable(dataInput.getContext()).get(index - 1);
+            }));
+            write.add((object, dataOutput) -> {
+                Object value = getter.apply(object);
+                if (value == null) {
+                    dataOutput.writeCompactInt(0);
+                    return;
+                }
+                int index = objectTable(dataOutput.getContext()).indexOf(value);
+                if (index < 0)
+                    throw new SerializerException(value + " is not in the object table");
+                dataOutput.writeCompactInt(index + 1);
+            });
+        } else if (type.isEnum()) {
+            EnumTable table = enumTable(type);
+            boolean uByte = getAnnotation.apply(UByte.class) != null;
+            read.add((object, dataInput) -> setter.accept(object, () -> {
+                int value = uByte ? dataInput.readUnsignedByte() : dataInput.readCompactInt();
+                return table.isTagged() ? table.forTag(value) : table.forOrdinal(value);
+            }));
+            write.add((object, dataOutput) -> {
+                Enum<?> constant = (Enum<?>) getter.apply(object);
+                int value = table.isTagged() ? table.tag(constant) : constant.ordinal();
+                if (uByte)
+                    dataOutput.writeByte(value);
+                else
+                    dataOutput.writeCompactInt(value);
+            });
+        } else if (type == Byte.TYPE || type == Byte.class) {
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, getAnnotation);
+            read.add((object, dataInput) -> setter.accept(object, () -> (byte) reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, (Byte) getter.apply(object)));
         } else if (type == Short.TYPE || type == Short.class) {
-            read.add((object, dataInput) -> setter.accept(object, () -> (short) dataInput.readUnsignedShort()));
-            write.add((object, dataOutput) -> dataOutput.writeShort(((Short) getter.apply(object))));
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, getAnnotation);
+            read.add((object, dataInput) -> setter.accept(object, () -> (short) reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, (Short) getter.apply(object)));
         } else if (type == Integer.TYPE || type == Integer.class) {
-            if (getAnnotation.apply(Compact.class) != null) {
-                read.add((object, dataInput) -> setter.accept(object, dataInput::readCompactInt));
-                write.add((object, dataOutput) -> dataOutput.writeCompactInt(((Integer) getter.apply(object))));
-            } else if (getAnnotation.apply(UShort.class) != null) {
-                read.add((object, dataInput) -> setter.accept(object, dataInput::readUnsignedShort));
-                write.add((object, dataOutput) -> dataOutput.writeShort(((Integer) getter.apply(object))));
-            } else if (getAnnotation.apply(UByte.class) != null) {
-                read.add((object, dataInput) -> setter.accept(object, dataInput::readUnsignedByte));
-                write.add((object, dataOutput) -> dataOutput.writeByte(((Integer) getter.apply(object))));
-            } else {
-                read.add((object, dataInput) -> setter.accept(object, dataInput::readInt));
-                write.add((object, dataOutput) -> dataOutput.writeInt(((Integer) getter.apply(object))));
-            }
+            ToIntFunction<ObjectInput<C>> reader = intReader(type, getAnnotation);
+            ObjIntConsumer<ObjectOutput<C>> writer = intWriter(type, getAnnotation);
+            read.add((object, dataInput) -> setter.accept(object, () -> reader.applyAsInt(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, (Integer) getter.apply(object)));
         } else if (type == Long.TYPE || type == Long.class) {
-            read.add((object, dataInput) -> setter.accept(object, dataInput::readLong));
-            write.add((object, dataOutput) -> dataOutput.writeLong(((Long) getter.apply(object))));
+            ToLongFunction<ObjectInput<C>> reader = longReader(getAnnotation);
+            ObjLongConsumer<ObjectOutput<C>> writer = longWriter(getAnnotation);
+            read.add((object, dataInput) -> setter.accept(object, () -> reader.applyAsLong(dataInput)));
+            write.add((object, dataOutput) -> writer.accept(dataOutput, (Long) getter.apply(object)));
         } else if (type == Float.TYPE || type == Float.class) {
             read.add((object, dataInput) -> setter.accept(object, dataInput::readFloat));
             write.add((object, dataOutput) -> dataOutput.writeFloat(((Float) getter.apply(object))));
@@ -178,71 +838,371 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
                 read.add((object, dataInput) -> setter.accept(object, dataInput::readLine));
                 write.add((object, dataOutput) -> dataOutput.writeLine(((String) getter.apply(object))));
             }
-        } else if (type.isArray()) {
+        } else if (type == ByteBuffer.class) {
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            read.add((object, dataInput) -> {
+                ByteBuffer buffer = dataInput.readBuffer(lenReader.apply(dataInput));
+                setter.accept(object, () -> buffer);
+            });
+            write.add((object, dataOutput) -> {
+                ByteBuffer buffer = (ByteBuffer) getter.apply(object);
+                lenWriter.accept(dataOutput, buffer.remaining());
+                dataOutput.writeBuffer(buffer);
+            });
+        } else if (type == byte[].class) {
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            read.add((object, dataInput) -> {
+                byte[] array = dataInput.readArray(lenReader.apply(dataInput), 1, byte[]::new, dataInput::readFully);
+                setter.accept(object, () -> array);
+            });
+            write.add((object, dataOutput) -> {
+                byte[] array = (byte[]) getter.apply(object);
+                lenWriter.accept(dataOutput, array.length);
+                dataOutput.writeBuffer(ByteBuffer.wrap(array));
+            });
+        } else if (type == int[].class && getAnnotation.apply(Compact.class) != null) {
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            read.add((object, dataInput) -> {
+                int[] array = dataInput.readArray(lenReader.apply(dataInput), 4, int[]::new, dataInput::readCompactInts);
+                setter.accept(object, () -> array);
+            });
+            write.add((object, dataOutput) -> {
+                int[] array = (int[]) getter.apply(object);
+                lenWriter.accept(dataOutput, array.length);
+                dataOutput.writeCompactInts(array, 0, array.length);
+            });
+        } else if (type == int[].class && (getAnnotation.apply(VarInt.class) != null || getAnnotation.apply(ZigZag.class) != null || getAnnotation.apply(Delta.class) != null)) {
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            boolean delta = getAnnotation.apply(Delta.class) != null;
+            boolean zigZag = delta || getAnnotation.apply(ZigZag.class) != null;
+            read.add((object, dataInput) -> {
+                int[] array = dataInput.readArray(lenReader.apply(dataInput), 4, int[]::new, dataInput::readVarInts);
+                if (delta) {
+                    int prev = 0;
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = prev += (array[i] >>> 1) ^ -(array[i] & 1);
+                } else if (zigZag) {
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = (array[i] >>> 1) ^ -(array[i] & 1);
+                }
+                setter.accept(object, () -> array);
+            });
+            write.add((object, dataOutput) -> {
+                int[] array = (int[]) getter.apply(object);
+                lenWriter.accept(dataOutput, array.length);
+                if (!zigZag) {
+                    dataOutput.writeVarInts(array, 0, array.length);
+                    return;
+                }
+                int[] chunk = new int[Math.min(array.length, 0x400)];
+                int prev = 0;
+                for (int off = 0; off < array.length; off += chunk.length) {
+                    int len = Math.min(chunk.length, array.length - off);
+                    for (int i = 0; i < len; i++) {
+                        int value = array[off + i];
+                        int d = delta ? value - prev : value;
+                        chunk[i] = (d << 1) ^ (d >> 31);
+                        prev = value;
+                    }
+                    dataOutput.writeVarInts(chunk, 0, len);
+                }
+            });
+        } else if (type == long[].class && (getAnnotation.apply(VarInt.class) != null || getAnnotation.apply(ZigZag.class) != null || getAnnotation.apply(Delta.class) != null)) {
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            boolean delta = getAnnotation.apply(Delta.class) != null;
+            boolean zigZag = delta || getAnnotation.apply(ZigZag.class) != null;
+            read.add((object, dataInput) -> {
+                long[] array = dataInput.readArray(lenReader.apply(dataInput), 8, long[]::new, dataInput::readVarLongs);
+                if (delta) {
+                    long prev = 0;
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = prev += (array[i] >>> 1) ^ -(array[i] & 1);
+                } else if (zigZag) {
+                    for (int i = 0; i < array.length; i++)
+                        array[i] = (array[i] >>> 1) ^ -(array[i] & 1);
+                }
+                setter.accept(object, () -> array);
+            });
+            write.add((object, dataOutput) -> {
+                long[] array = (long[]) getter.apply(object);
+                lenWriter.accept(dataOutput, array.length);
+                if (!zigZag) {
+                    dataOutput.writeVarLongs(array, 0, array.length);
+                    return;
+                }
+                long[] chunk = new long[Math.min(array.length, 0x400)];
+                long prev = 0;
+                for (int off = 0; off < array.length; off += chunk.length) {
+                    int len = Math.min(chunk.length, array.length - off);
+                    for (int i = 0; i < len; i++) {
+                        long value = array[off + i];
+                        long d = delta ? value - prev : value;
+                        chunk[i] = (d << 1) ^ (d >> 63);
+                        prev = value;
+                    }
+                    dataOutput.writeVarLongs(chunk, 0, len);
+                }
+            });
+        } else if (type.isArray() && getAnnotation.apply(Columnar.class) != null) {
             Class componentType = type.getComponentType();
             Length length = (Length) getAnnotation.apply(Length.class);
-            Function<DataInput, Integer> lenReader;
-            BiConsumer<DataOutput, Integer> lenWriter;
-            if (length != null) {
-                if (length.value() == Length.Type.BYTE) {
-                    lenReader = DataInput::readUnsignedByte;
-                    lenWriter = DataOutput::writeByte;
-                } else if (length.value() == Length.Type.INT) {
-                    lenReader = DataInput::readInt;
-                    lenWriter = DataOutput::writeInt;
-                } else if (length.value() == Length.Type.CONST) {
-                    lenReader = input -> length.length();
-                    lenWriter = (output, len) -> {};
-                } else {
-                    lenReader = DataInput::readCompactInt;
-                    lenWriter = DataOutput::writeCompactInt;
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+
+            if (componentType.isPrimitive() || componentType.isAnnotationPresent(Subtypes.class) || !nullableFields(componentType).isEmpty())
+                throw new SerializerException("@Columnar is not supported for " + componentType);
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> level : getHierarchy(componentType)) {
+                if (hasMethods(level))
+                    throw new SerializerException("@Columnar is not supported for " + componentType);
+                for (Field field : level.getDeclaredFields()) {
+                    if (validField(field))
+                        fields.add(field);
                 }
-            } else {
-                lenReader = DataInput::readCompactInt;
-                lenWriter = DataOutput::writeCompactInt;
             }
+            int[] widths = new int[fields.size()];
+            List<List<BiConsumer<Object, ObjectInput<C>>>> columnRead = new ArrayList<>();
+            List<List<BiConsumer<Object, ObjectOutput<C>>>> columnWrite = new ArrayList<>();
+            for (int c = 0; c < fields.size(); c++) {
+                Field field = fields.get(c);
+                List<BiConsumer<Object, ObjectInput<C>>> r = new ArrayList<>();
+                List<BiConsumer<Object, ObjectOutput<C>>> w = new ArrayList<>();
+                handleField(field, r, w);
+                widths[c] = field.isAnnotationPresent(Custom.class) ? -1 : fixedWidth(field.getType(), field::getAnnotation);
+                columnRead.add(r);
+                columnWrite.add(w);
+            }
+
+            int fixedBytes = 0;
+            for (int width : widths)
+                fixedBytes += Math.max(width, 0);
+            long rowBytes = fixedBytes;
+
+            InlineCache<Serializer> serializers = new InlineCache<>(componentType, this::forClass);
             read.add((object, dataInput) -> {
-                Object array = Array.newInstance(componentType, lenReader.apply(dataInput));
-                for (int i = 0; i < Array.getLength(array); i++) {
-                    int ind = i;
-                    List<BiConsumer<Object, ObjectInput<C>>> arrayRead = new ArrayList<>();
-                    List<BiConsumer<Object, ObjectOutput<C>>> arrayWrite = new ArrayList<>();
-                    serializer(componentType, arr -> Array.get(arr, ind), (arr, val) -> Array.set(arr, ind, val.get()), getAnnotation, arrayRead, arrayWrite);
-                    for (BiConsumer<Object, ObjectInput<C>> ra : arrayRead)
-                        ra.accept(array, dataInput);
+                int len = dataInput.checkLength(lenReader.apply(dataInput), widths.length * 8 + 16);
+                if (dataInput instanceof ObjectInputBuffer && len * rowBytes > ((ObjectInputBuffer) dataInput).remaining())
+                    throw new UncheckedIOException(new EOFException());
+                Object[] array = (Object[]) Array.newInstance(componentType, len);
+                Serializer componentSerializer = serializers.get(componentType);
+                for (int i = 0; i < array.length; i++)
+                    array[i] = componentSerializer.instantiate(dataInput);
+                for (int c = 0; c < widths.length; c++) {
+                    if (widths[c] > 0) {
+                        readColumn(dataInput.readBuffer(array.length * widths[c]), fields.get(c), widths[c], array);
+                    } else {
+                        for (Object element : array) {
+                            for (BiConsumer<Object, ObjectInput<C>> ra : columnRead.get(c))
+                                ra.accept(element, dataInput);
+                        }
+                    }
                 }
                 setter.accept(object, () -> array);
             });
+            write.add((object, dataOutput) -> {
+                Object[] array = (Object[]) getter.apply(object);
+                for (Object element : array) {
+                    if (element == null || element.getClass() != componentType)
+                        throw new SerializerException("@Columnar array of " + componentType + " contains " + (element == null ? "null" : element.getClass()));
+                }
+                lenWriter.accept(dataOutput, array.length);
+                for (int c = 0; c < widths.length; c++) {
+                    if (widths[c] > 0) {
+                        ByteBuffer column = ByteBuffer.allocate(array.length * widths[c]).order(ByteOrder.LITTLE_ENDIAN);
+                        writeColumn(column, fields.get(c), widths[c], array);
+                        dataOutput.writeBytes(column.array(), 0, column.position());
+                    } else {
+                        for (Object element : array) {
+                            for (BiConsumer<Object, ObjectOutput<C>> wa : columnWrite.get(c))
+                                wa.accept(element, dataOutput);
+                        }
+                    }
+                }
+            });
+        } else if (type.isArray()) {
+            Class componentType = type.getComponentType();
+            Length length = (Length) getAnnotation.apply(Length.class);
+            Function<DataInput, Integer> lenReader = lengthReader(length);
+            BiConsumer<DataOutput, Integer> lenWriter = lengthWriter(length);
+            List<BiConsumer<Object[], ObjectInput<C>>> elementRead = new ArrayList<>();
+            List<BiConsumer<Object[], ObjectOutput<C>>> elementWrite = new ArrayList<>();
+            serializer(componentType, cell -> cell[0], (cell, val) -> cell[0] = val.get(), getAnnotation, elementRead, elementWrite);
+            read.add((object, dataInput) -> {
+                Object array = dataInput.readArray(lenReader.apply(dataInput), elementSize(componentType), n -> Array.newInstance(componentType, n), (a, off, len) -> {
+                    Object[] cell = new Object[1];
+                    for (int i = off; i < off + len; i++) {
+                        for (BiConsumer<Object[], ObjectInput<C>> ra : elementRead)
+                            ra.accept(cell, dataInput);
+                        Array.set(a, i, cell[0]);
+                    }
+                });
+                setter.accept(object, () -> array);
+            });
             write.add((object, dataOutput) -> {
                 Object array = getter.apply(object);
                 lenWriter.accept(dataOutput, Array.getLength(array));
+                Object[] cell = new Object[1];
                 for (int i = 0; i < Array.getLength(array); i++) {
-                    int ind = i;
-                    List<BiConsumer<Object, ObjectInput<C>>> arrayRead = new ArrayList<>();
-                    List<BiConsumer<Object, ObjectOutput<C>>> arrayWrite = new ArrayList<>();
-                    serializer(componentType, arr -> Array.get(arr, ind), (arr, val) -> Array.set(arr, ind, val.get()), getAnnotation, arrayRead, arrayWrite);
-                    for (BiConsumer<Object, ObjectOutput<C>> wa : arrayWrite)
-                        wa.accept(array, dataOutput);
+                    cell[0] = Array.get(array, i);
+                    for (BiConsumer<Object[], ObjectOutput<C>> wa : elementWrite)
+                        wa.accept(cell, dataOutput);
                 }
             });
+        } else if (type.isAnnotationPresent(Subtypes.class)) {
+            SubtypeTable table = subtypeTable(type);
+            InlineCache<SubtypeTable.Entry> entries = new InlineCache<>(type, table::forClass);
+            read.add((object, dataInput) -> {
+                SubtypeTable.Entry entry = table.forTag(dataInput.readCompactInt());
+                Object obj = entry.instantiate();
+                entry.serializer().readObject(obj, dataInput);
+                setter.accept(object, () -> obj);
+            });
+            write.add((object, dataOutput) -> {
+                Object obj = getter.apply(object);
+                SubtypeTable.Entry entry = entries.get(obj.getClass());
+                dataOutput.writeCompactInt(entry.tag);
+                entry.serializer().writeObject(obj, dataOutput);
+            });
         } else {
+            InlineCache<Serializer> serializers = new InlineCache<>(type, this::forClass);
             read.add((object, dataInput) -> {
-                Serializer typeSerializer = forClass(type);
+                Serializer typeSerializer = serializers.get(type);
                 Object obj = typeSerializer.instantiate(dataInput);
                 if (obj != null) {
-                    Serializer realTypeSerializer = forClass(obj.getClass());
+                    Serializer realTypeSerializer = obj.getClass() == type ? typeSerializer : serializers.get(obj.getClass());
                     realTypeSerializer.readObject(obj, dataInput);
                 }
                 setter.accept(object, () -> obj);
             });
             write.add((object, dataOutput) -> {
                 Object obj = getter.apply(object);
-                Serializer realTypeSerializer = forClass(obj.getClass());
+                Serializer realTypeSerializer = serializers.get(obj.getClass());
                 realTypeSerializer.writeObject(obj, dataOutput);
             });
         }
     }
 
+    private static int elementSize(Class<?> type) {
+        if (type == Byte.TYPE || type == Boolean.TYPE)
+            return 1;
+        if (type == Short.TYPE || type == Character.TYPE)
+            return 2;
+        if (type == Long.TYPE || type == Double.TYPE)
+            return 8;
+        return 4;
+    }
+
+    private static ReferenceTable<String> nameTable(Context context) {
+        ReferenceTable<String> table = context != null ? context.getNameTable() : null;
+        if (table == null)
+            throw new SerializerException("Context has no name table");
+        return table;
+    }
+
+    private static ReferenceTable<?> objectTable(Context context) {
+        ReferenceTable<?> table = context != null ? context.getObjectTable() : null;
+        if (table == null)
+            throw new SerializerException("Context has no object table");
+        return table;
+    }
+
+    private static void readColumn(ByteBuffer column, Field field, int width, Object[] array) {
+        Class<?> type = field.getType();
+        if (type == Byte.TYPE) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetByte(field, element, column.get());
+        } else if (type == Short.TYPE) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetShort(field, element, column.getShort());
+        } else if (type == Integer.TYPE && width == 1) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetInt(field, element, column.get() & 0xff);
+        } else if (type == Integer.TYPE && width == 2) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetInt(field, element, column.getShort() & 0xffff);
+        } else if (type == Integer.TYPE) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetInt(field, element, column.getInt());
+        } else if (type == Long.TYPE) {
+            for (Object element : array)
+                ReflectionUtil.fieldSetLong(field, element, column.getLong());
+        } else {
+            for (Object element : array)
+                ReflectionUtil.fieldSetFloat(field, element, column.getFloat());
+        }
+    }
+
+    private static void writeColumn(ByteBuffer column, Field field, int width, Object[] array) {
+        Class<?> type = field.getType();
+        if (type == Byte.TYPE) {
+            for (Object element : array)
+                column.put(ReflectionUtil.fieldGetByte(field, element));
+        } else if (type == Short.TYPE) {
+            for (Object element : array)
+                column.putShort(ReflectionUtil.fieldGetShort(field, element));
+        } else if (type == Integer.TYPE && width == 1) {
+            for (Object element : array)
+                column.put((byte) ReflectionUtil.fieldGetInt(field, element));
+        } else if (type == Integer.TYPE && width == 2) {
+            for (Object element : array)
+                column.putShort((short) ReflectionUtil.fieldGetInt(field, element));
+        } else if (type == Integer.TYPE) {
+            for (Object element : array)
+                column.putInt(ReflectionUtil.fieldGetInt(field, element));
+        } else if (type == Long.TYPE) {
+            for (Object element : array)
+                column.putLong(ReflectionUtil.fieldGetLong(field, element));
+        } else {
+            for (Object element : array)
+                column.putFloat(ReflectionUtil.fieldGetFloat(field, element));
+        }
+    }
+
+    protected Function<DataInput, Integer> lengthReader(Length length) {
+        if (length == null)
+            return DataInput::readCompactInt;
+
+        switch (length.value()) {
+            case BYTE:
+                return DataInput::readUnsignedByte;
+            case INT:
+                return DataInput::readInt;
+            case CONST:
+                return input -> length.length();
+            default:
+                return DataInput::readCompactInt;
+        }
+    }
+
+    protected BiConsumer<DataOutput, Integer> lengthWriter(Length length) {
+        if (length == null)
+            return DataOutput::writeCompactInt;
+
+        switch (length.value()) {
+            case BYTE:
+                return DataOutput::writeByte;
+            case INT:
+                return DataOutput::writeInt;
+            case CONST:
+                return (output, len) -> {
+                    if (len != length.length())
+                        throw new SerializerException("Length " + len + " does not match @Length(CONST) " + length.length());
+                };
+            default:
+                return DataOutput::writeCompactInt;
+        }
+    }
+
     protected class SerializerImpl implements Serializer<Object, C> {
         protected final Class<?> clazz;
         protected final List<BiConsumer<Object, ObjectInput<C>>> readActions;
@@ -289,4 +1249,169 @@ public class ReflectionSerializerFactory<C extends Context> implements Serialize
             return "Serializer[" + clazz + "]";
         }
     }
+
+    protected static class InlineCache<V> {
+        private final ClassLoader loader;
+        private final Function<Class<?>, V> resolver;
+        private Entry<V> first;
+        private Entry<V> second;
+
+        public InlineCache(Class<?> owner, Function<Class<?>, V> resolver) {
+            this.loader = owner.getClassLoader();
+            this.resolver = resolver;
+        }
+
+        public V get(Class<?> clazz) {
+            Entry<V> entry = first;
+            if (entry != null && entry.clazz == clazz)
+                return entry.value;
+            entry = second;
+            if (entry != null && entry.clazz == clazz)
+                return entry.value;
+
+            V value = resolver.apply(clazz);
+            if (clazz.getClassLoader() != loader) {
+                return value;
+            } else if (first == null) {
+                first = new Entry<>(clazz, value);
+            } else if (second == null) {
+                second = new Entry<>(clazz, value);
+            }
+            return value;
+        }
+
+        private static class Entry<V> {
+            final Class<?> clazz;
+            final V value;
+
+            Entry(Class<?> clazz, V value) {
+                this.clazz = clazz;
+                this.value = value;
+            }
+        }
+    }
+
+    protected static class EnumTable {
+        protected final Class<?> clazz;
+        protected final Enum<?>[] constants;
+        protected final int[] tags;
+        protected final Map<Integer, Enum<?>> byTag = new HashMap<>();
+
+        public EnumTable(Class<?> clazz) {
+            this.clazz = clazz;
+            this.constants = (Enum<?>[]) clazz.getEnumConstants();
+
+            int tagged = 0;
+            int[] tags = new int[constants.length];
+            for (Enum<?> constant : constants) {
+                Tag tag;
+                try {
+                    tag = clazz.getField(constant.name()).getAnnotation(Tag.class);
+                } catch (NoSuchFieldException e) {
+                    throw new SerializerException(e);
+                }
+                if (tag == null)
+                    continue;
+
+                if (byTag.put(tag.value(), constant) != null)
+                    throw new SerializerException("Duplicate tag " + tag.value() + " in " + clazz);
+                tags[constant.ordinal()] = tag.value();
+                tagged++;
+            }
+            if (tagged != 0 && tagged != constants.length)
+                throw new SerializerException("Not all constants of " + clazz + " have @Tag");
+            this.tags = tagged != 0 ? tags : null;
+        }
+
+        public int size() {
+            return constants.length;
+        }
+
+        public boolean isTagged() {
+            return tags != null;
+        }
+
+        public Enum<?> forOrdinal(int ordinal) {
+            if (ordinal < 0 || ordinal >= constants.length)
+                throw new SerializerException("Unknown ordinal " + ordinal + " for " + clazz);
+            return constants[ordinal];
+        }
+
+        public Enum<?> forTag(int tag) {
+            Enum<?> constant = byTag.get(tag);
+            if (constant == null)
+                throw new SerializerException("Unknown tag " + tag + " for " + clazz);
+            return constant;
+        }
+
+        public int tag(Enum<?> constant) {
+            return tags[constant.ordinal()];
+        }
+    }
+
+    protected static class SubtypeTable {
+        protected final Class<?> clazz;
+        protected final Function<Class<?>, Serializer> resolver;
+        protected final Entry[] byTag;
+        protected final Map<Class, Entry> byClass = new HashMap<>();
+
+        public SubtypeTable(Class<?> clazz, Function<Class<?>, Serializer> resolver) {
+            this.clazz = clazz;
+            this.resolver = resolver;
+
+            Subtype[] subtypes = clazz.getAnnotation(Subtypes.class).value();
+            int size = 0;
+            for (Subtype subtype : subtypes) {
+                if (subtype.tag() < 0)
+                    throw new SerializerException("Negative tag " + subtype.tag() + " in @Subtypes of " + clazz);
+                if (!clazz.isAssignableFrom(subtype.value()))
+                    throw new SerializerException(subtype.value() + " is not a subtype of " + clazz);
+                size = Math.max(size, subtype.tag() + 1);
+            }
+            byTag = new Entry[size];
+            for (Subtype subtype : subtypes) {
+                if (byTag[subtype.tag()] != null || byClass.containsKey(subtype.value()))
+                    throw new SerializerException("Duplicate @Subtype " + subtype.tag() + " " + subtype.value() + " in " + clazz);
+                Entry entry = new Entry(subtype.tag(), subtype.value());
+                byTag[subtype.tag()] = entry;
+                byClass.put(subtype.value(), entry);
+            }
+        }
+
+        public Entry forTag(int tag) {
+            Entry entry = tag >= 0 && tag < byTag.length ? byTag[tag] : null;
+            if (entry == null)
+                throw new SerializerException("Unknown tag " + tag + " for " + clazz);
+            return entry;
+        }
+
+        public Entry forClass(Class<?> type) {
+            Entry entry = byClass.get(type);
+            if (entry == null)
+                throw new SerializerException(type + " is not registered in @Subtypes of " + clazz);
+            return entry;
+        }
+
+        protected class Entry {
+            protected final int tag;
+            protected final Class<?> type;
+            private Serializer serializer;
+
+            public Entry(int tag, Class<?> type) {
+                this.tag = tag;
+                this.type = type;
+            }
+
+            public Object instantiate() {
+                return ReflectionUtil.instantiate(type);
+            }
+
+            public Serializer serializer() {
+                if (serializer == null) {
+                    serializer = resolver.apply(type);
+                }
+                return serializer;
+            }
+        }
+    }
 }
@@ -49,6 +49,86 @@ public class ReflectionUtil {
         }
     }
 
+    public static byte fieldGetByte(Field field, Object obj) {
+        try {
+            return field.getByte(obj);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static void fieldSetByte(Field field, Object obj, byte value) {
+        try {
+            field.setByte(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static short fieldGetShort(Field field, Object obj) {
+        try {
+            return field.getShort(obj);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static void fieldSetShort(Field field, Object obj, short value) {
+        try {
+            field.setShort(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static int fieldGetInt(Field field, Object obj) {
+        try {
+            return field.getInt(obj);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static void fieldSetInt(Field field, Object obj, int value) {
+        try {
+            field.setInt(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static long fieldGetLong(Field field, Object obj) {
+        try {
+            return field.getLong(obj);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static void fieldSetLong(Field field, Object obj, long value) {
+        try {
+            field.setLong(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static float fieldGetFloat(Field field, Object obj) {
+        try {
+            return field.getFloat(obj);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    public static void fieldSetFloat(Field field, Object obj, float value) {
+        try {
+            field.setFloat(obj, value);
+        } catch (IllegalAccessException e) {
+            throw new SerializerException(e);
+        }
+    }
+
     public static void invokeMethod(Method method, Object obj, Object... params) {
         try {
             method.invoke(obj, params);
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SegmentedObjectOutput<T extends Context> implements ObjectOutput<T>, Closeable {
+    private final Charset charset;
+    private final SerializerFactory<T> serializerFactory;
+    private final T context;
+    private final BufferPool pool;
+    private final int chunkSize;
+    private final int referenceThreshold;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] chunk;
+    private int chunkStart;
+    private int chunkPos;
+    private long size;
+    private int position;
+
+    public SegmentedObjectOutput(Charset charset, SerializerFactory<T> serializerFactory, T context) {
+        this(charset, 0, serializerFactory, context, BufferPool.getDefault(), 0x2000, 0x1000);
+    }
+
+    public SegmentedObjectOutput(Charset charset, int position, SerializerFactory<T> serializerFactory, T context, BufferPool pool, int chunkSize, int referenceThreshold) {
+        this.charset = charset;
+        this.position = position;
+        this.serializerFactory = serializerFactory;
+        this.context = context;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.referenceThreshold = referenceThreshold;
+    }
+
+    @Override
+    public SerializerFactory<T> getSerializerFactory() {
+        return serializerFactory;
+    }
+
+    @Override
+    public T getContext() {
+        return context;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() throws UncheckedIOException {
+        return (int) (position + size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void writeByte(int b) throws UncheckedIOException {
+        if (chunk == null || chunkPos == chunk.length)
+            nextChunk();
+        chunk[chunkPos++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int off, int len) throws UncheckedIOException {
+        while (len > 0) {
+            if (chunk == null || chunkPos == chunk.length)
+                nextChunk();
+            int n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(b, off, chunk, chunkPos, n);
+            chunkPos += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    @Override
+    public void writeBuffer(ByteBuffer buffer) throws UncheckedIOException {
+        if (buffer.remaining() >= referenceThreshold) {
+            reference(buffer.duplicate());
+            return;
+        }
+
+        ByteBuffer src = buffer.duplicate();
+        while (src.hasRemaining()) {
+            if (chunk == null || chunkPos == chunk.length)
+                nextChunk();
+            int n = Math.min(src.remaining(), chunk.length - chunkPos);
+            src.get(chunk, chunkPos, n);
+            chunkPos += n;
+            size += n;
+        }
+    }
+
+    private void reference(ByteBuffer segment) {
+        flushChunk();
+        segments.add(segment);
+        size += segment.remaining();
+    }
+
+    private void flushChunk() {
+        if (chunk != null && chunkPos > chunkStart) {
+            segments.add(ByteBuffer.wrap(chunk, chunkStart, chunkPos - chunkStart));
+            chunkStart = chunkPos;
+        }
+    }
+
+    private void nextChunk() {
+        flushChunk();
+        chunk = pool != null ? pool.lease(chunkSize) : new byte[chunkSize];
+        chunks.add(chunk);
+        chunkStart = chunkPos = 0;
+    }
+
+    public ByteBuffer[] getSegments() {
+        flushChunk();
+        ByteBuffer[] result = new ByteBuffer[segments.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = segments.get(i).duplicate();
+        return result;
+    }
+
+    // Loops until every segment is written, so the channel must be in blocking mode.
+    public long writeTo(GatheringByteChannel channel) throws UncheckedIOException {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+            throw new IllegalArgumentException("writeTo requires a blocking channel");
+
+        ByteBuffer[] buffers = getSegments();
+        long written = 0;
+        int offset = 0;
+        try {
+            while (offset < buffers.length) {
+                written += channel.write(buffers, offset, buffers.length - offset);
+                while (offset < buffers.length && !buffers[offset].hasRemaining())
+                    offset++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return written;
+    }
+
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new SerializerException("Output is too large");
+
+        byte[] result = new byte[(int) size];
+        int pos = 0;
+        for (ByteBuffer segment : getSegments()) {
+            int len = segment.remaining();
+            segment.get(result, pos, len);
+            pos += len;
+        }
+        return result;
+    }
+
+    public void reset() {
+        reset(0);
+    }
+
+    public void reset(int position) {
+        release();
+        this.position = position;
+    }
+
+    private void release() {
+        if (pool != null) {
+            for (byte[] c : chunks)
+                pool.release(c);
+        }
+        chunks.clear();
+        segments.clear();
+        chunk = null;
+        chunkStart = chunkPos = 0;
+        size = 0;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+public interface SerializationVisitor {
+    default boolean beginObject(Field field, Class<?> type) {
+        return true;
+    }
+
+    default void endObject(Field field, Class<?> type) {
+    }
+
+    default boolean beginArray(Field field, Class<?> componentType, int length) {
+        return true;
+    }
+
+    default void endArray(Field field) {
+    }
+
+    default void visitNull(Field field) {
+    }
+
+    default void visitByte(Field field, byte value) {
+    }
+
+    default void visitShort(Field field, short value) {
+    }
+
+    default void visitInt(Field field, int value) {
+    }
+
+    default void visitLong(Field field, long value) {
+    }
+
+    default void visitFloat(Field field, float value) {
+    }
+
+    default void visitString(Field field, String value) {
+    }
+
+    default void visitBytes(Field field, ByteBuffer value) {
+    }
+
+    default void visitObject(Field field, Object value) {
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.io.annotation.*;
+
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+public class SerializationWalker<C extends Context> {
+    private final ReflectionSerializerFactory<C> serializerFactory;
+    private final Map<Class, Plan> plans = new HashMap<>();
+
+    public SerializationWalker(ReflectionSerializerFactory<C> serializerFactory) {
+        this.serializerFactory = serializerFactory;
+    }
+
+    public void walk(Class<?> type, ObjectInput<C> input, SerializationVisitor visitor) throws UncheckedIOException {
+        walkObject(null, type, input, visitor, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void walkObject(Field field, Class<?> type, ObjectInput<C> input, SerializationVisitor visitor, boolean visit) {
+        Plan plan = plan(type);
+        if (plan == null) {
+            Serializer serializer = serializerFactory.forClass(type);
+            Object obj = serializer.instantiate(input);
+            if (obj != null) {
+                Serializer realTypeSerializer = obj.getClass() == type ? serializer : serializerFactory.forClass(obj.getClass());
+                realTypeSerializer.readObject(obj, input);
+            }
+            if (visit)
+                visitor.visitObject(field, obj);
+            return;
+        }
+
+        boolean descend = visit && visitor.beginObject(field, type);
+        plan.walk(input, visitor, descend);
+        if (descend)
+            visitor.endObject(field, type);
+    }
+
+    private Plan plan(Class<?> type) {
+        if (!plans.containsKey(type)) {
+            plans.put(type, createPlan(type));
+        }
+        return plans.get(type);
+    }
+
+    private Plan createPlan(Class<?> type) {
+        if (!(serializerFactory.forClass(type) instanceof ReflectionSerializerFactory.SerializerImpl))
+            return null;
+
+        List<Field> nullable = serializerFactory.nullableFields(type);
+        List<Field> fields = new ArrayList<>();
+        List<Walk<C>> walks = new ArrayList<>();
+        for (Class<?> level : serializerFactory.getHierarchy(type)) {
+            if (serializerFactory.hasMethods(level))
+                return null;
+
+            for (Field field : level.getDeclaredFields()) {
+                if (!serializerFactory.validField(field))
+                    continue;
+
+                field.setAccessible(true);
+                fields.add(field);
+                walks.add(compileField(field));
+            }
+        }
+
+        int[] bits = new int[fields.size()];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = nullable.indexOf(fields.get(i));
+        return new Plan(fields.toArray(new Field[fields.size()]), toArray(walks), bits, (nullable.size() + 63) >>> 6);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C extends Context> Walk<C>[] toArray(List<Walk<C>> walks) {
+        return walks.toArray(new Walk[walks.size()]);
+    }
+
+    private Walk<C> compileField(Field field) {
+        Custom custom = field.getAnnotation(Custom.class);
+        if (custom != null) {
+            Serializer serializer = serializerFactory.customSerializer(custom.value());
+            return (input, visitor, visit) -> {
+                Object obj = serializer.instantiate(input);
+                serializer.readObject(obj, input);
+                if (visit)
+                    visitor.visitObject(field, obj);
+            };
+        }
+        if (field.getType() == EnumSet.class || field.getType() == EnumMap.class) {
+            List<BiConsumer<Object[], ObjectInput<C>>> read = new ArrayList<>();
+            if (field.getType() == EnumSet.class) {
+                serializerFactory.enumSet(ReflectionSerializerFactory.typeArgument(field, 0),
+                        cell -> cell[0], (cell, val) -> cell[0] = val.get(), read, new ArrayList<>());
+            } else {
+                serializerFactory.enumMap(ReflectionSerializerFactory.typeArgument(field, 0), ReflectionSerializerFactory.typeArgument(field, 1),
+                        cell -> cell[0], (cell, val) -> cell[0] = val.get(), field::getAnnotation, read, new ArrayList<>());
+            }
+            return materialize(field, read);
+        }
+        return compile(field.getType(), field, field::getAnnotation);
+    }
+
+    private Walk<C> materialize(Field field, List<BiConsumer<Object[], ObjectInput<C>>> read) {
+        return (input, visitor, visit) -> {
+            Object[] cell = new Object[1];
+            for (BiConsumer<Object[], ObjectInput<C>> action : read)
+                action.accept(cell, input);
+            if (visit)
+                visitor.visitObject(field, cell[0]);
+        };
+    }
+
+    private Walk<C> compile(Class<?> type, Field field, Function<Class<? extends Annotation>, Annotation> getAnnotation) {
+        if (!type.isArray() && (getAnnotation.apply(NameRef.class) != null || getAnnotation.apply(ObjectRef.class) != null)) {
+            return (input, visitor, visit) -> {
+                int index = input.readCompactInt();
+                if (visit)
+                    visitor.visitInt(field, index);
+            };
+        } else if (type == Byte.TYPE || type == Byte.class) {
+            return (input, visitor, visit) -> {
+                byte value = (byte) input.readUnsignedByte();
+                if (visit)
+                    visitor.visitByte(field, value);
+            };
+        } else if (type == Short.TYPE || type == Short.class) {
+            ToIntFunction<ObjectInput<C>> reader = serializerFactory.intReader(type, getAnnotation);
+            return (input, visitor, visit) -> {
+                short value = (short) reader.applyAsInt(input);
+                if (visit)
+                    visitor.visitShort(field, value);
+            };
+        } else if (type == Integer.TYPE || type == Integer.class) {
+            ToIntFunction<ObjectInput<C>> reader = serializerFactory.intReader(type, getAnnotation);
+            return (input, visitor, visit) -> {
+                int value = reader.applyAsInt(input);
+                if (visit)
+                    visitor.visitInt(field, value);
+            };
+        } else if (type == Long.TYPE || type == Long.class) {
+            ToLongFunction<ObjectInput<C>> reader = serializerFactory.longReader(getAnnotation);
+            return (input, visitor, visit) -> {
+                long value = reader.applyAsLong(input);
+                if (visit)
+                    visitor.visitLong(field, value);
+            };
+        } else if (type == Float.TYPE || type == Float.class) {
+            return (input, visitor, visit) -> {
+                float value = input.readFloat();
+                if (visit)
+                    visitor.visitFloat(field, value);
+            };
+        } else if (type == String.class) {
+            boolean utf = getAnnotation.apply(UTF.class) != null;
+            return (input, visitor, visit) -> {
+                if (!visit) {
+                    if (utf)
+                        input.skipUTF();
+                    else
+                        input.skipLine();
+                    return;
+                }
+                visitor.visitString(field, utf ? input.readUTF() : input.readLine());
+            };
+        } else if (type == ByteBuffer.class || type == byte[].class) {
+            Function<DataInput, Integer> lenReader = serializerFactory.lengthReader((Length) getAnnotation.apply(Length.class));
+            return (input, visitor, visit) -> {
+                int length = lenReader.apply(input);
+                if (!visit) {
+                    input.skipBytes(length);
+                    return;
+                }
+                visitor.visitBytes(field, input.readBuffer(length));
+            };
+        } else if (type.isArray() && type.getComponentType().isPrimitive()) {
+            Class<?> componentType = type.getComponentType();
+            List<BiConsumer<Object[], ObjectInput<C>>> read = new ArrayList<>();
+            serializerFactory.serializer(type, cell -> cell[0], (cell, val) -> cell[0] = val.get(), getAnnotation, read, new ArrayList<>());
+            return (input, visitor, visit) -> {
+                Object[] cell = new Object[1];
+                for (BiConsumer<Object[], ObjectInput<C>> action : read)
+                    action.accept(cell, input);
+                int length = Array.getLength(cell[0]);
+                if (!visit || !visitor.beginArray(field, componentType, length))
+                    return;
+                for (int i = 0; i < length; i++)
+                    visitElement(visitor, field, Array.get(cell[0], i));
+                visitor.endArray(field);
+            };
+        } else if (type.isArray() && getAnnotation.apply(Columnar.class) == null) {
+            Class<?> componentType = type.getComponentType();
+            Function<DataInput, Integer> lenReader = serializerFactory.lengthReader((Length) getAnnotation.apply(Length.class));
+            Walk<C> element = compile(componentType, field, getAnnotation);
+            return (input, visitor, visit) -> {
+                int length = input.checkLength(lenReader.apply(input), 0);
+                boolean descend = visit && visitor.beginArray(field, componentType, length);
+                for (int i = 0; i < length; i++)
+                    element.walk(input, visitor, descend);
+                if (descend)
+                    visitor.endArray(field);
+            };
+        } else if (type.isAnnotationPresent(Subtypes.class)) {
+            ReflectionSerializerFactory.SubtypeTable table = serializerFactory.subtypeTable(type);
+            return (input, visitor, visit) -> walkObject(field, table.forTag(input.readCompactInt()).type, input, visitor, visit);
+        } else if (!type.isArray() && !type.isPrimitive() && !type.isEnum()) {
+            return (input, visitor, visit) -> walkObject(field, type, input, visitor, visit);
+        }
+
+        List<BiConsumer<Object[], ObjectInput<C>>> read = new ArrayList<>();
+        serializerFactory.serializer(type, cell -> cell[0], (cell, val) -> cell[0] = val.get(), getAnnotation, read, new ArrayList<>());
+        return materialize(field, read);
+    }
+
+    private static void visitElement(SerializationVisitor visitor, Field field, Object value) {
+        if (value instanceof Byte)
+            visitor.visitByte(field, (Byte) value);
+        else if (value instanceof Short)
+            visitor.visitShort(field, (Short) value);
+        else if (value instanceof Integer)
+            visitor.visitInt(field, (Integer) value);
+        else if (value instanceof Long)
+            visitor.visitLong(field, (Long) value);
+        else if (value instanceof Float)
+            visitor.visitFloat(field, (Float) value);
+        else
+            visitor.visitObject(field, value);
+    }
+
+    private interface Walk<C extends Context> {
+        void walk(ObjectInput<C> input, SerializationVisitor visitor, boolean visit);
+    }
+
+    private class Plan {
+        final Field[] fields;
+        final Walk<C>[] walks;
+        final int[] bits;
+        final int words;
+
+        Plan(Field[] fields, Walk<C>[] walks, int[] bits, int words) {
+            this.fields = fields;
+            this.walks = walks;
+            this.bits = bits;
+            this.words = words;
+        }
+
+        void walk(ObjectInput<C> input, SerializationVisitor visitor, boolean visit) {
+            long[] masks = new long[words];
+            for (int i = 0; i < words; i++)
+                masks[i] = input.readVarLong();
+            for (int i = 0; i < walks.length; i++) {
+                int bit = bits[i];
+                if (bit >= 0 && (masks[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                    if (visit)
+                        visitor.visitNull(fields[i]);
+                    continue;
+                }
+                walks[i].walk(input, visitor, visit);
+            }
+        }
+    }
+}
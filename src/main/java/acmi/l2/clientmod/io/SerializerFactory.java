@@ -21,6 +21,27 @@
  */
 package acmi.l2.clientmod.io;
 
+import java.nio.ByteBuffer;
+
 public interface SerializerFactory<C extends Context> {
     <T> Serializer<T, C> forClass(Class<T> clazz);
+
+    default <T> T deepCopy(T object) {
+        return deepCopy(object, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    default <T> T deepCopy(T object, C context) {
+        if (object == null)
+            return null;
+
+        Serializer serializer = forClass(object.getClass());
+        try (ObjectOutputBuffer<C> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), this, context)) {
+            serializer.writeObject(object, output);
+            ObjectInput<C> input = new ObjectInputBuffer<>(ByteBuffer.wrap(output.toByteArray()), UnrealPackage.getDefaultCharset(), this, context);
+            Object copy = serializer.instantiate(input);
+            serializer.readObject(copy, input);
+            return (T) copy;
+        }
+    }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class TranscodingPipeline<I, O> {
+    private static final Item POISON = new Item(-1, null);
+
+    private final Function<ByteBuffer, List<I>> decoder;
+    private final Function<I, O> transformer;
+    private final Function<List<O>, byte[]> encoder;
+
+    private int decoders = 1;
+    private int transformers = 1;
+    private int encoders = 1;
+    private int queueCapacity = 64;
+
+    private volatile StageMetrics decodeMetrics = new StageMetrics("decode");
+    private volatile StageMetrics transformMetrics = new StageMetrics("transform");
+    private volatile StageMetrics encodeMetrics = new StageMetrics("encode");
+    private volatile long elapsedNanos;
+
+    public TranscodingPipeline(Function<ByteBuffer, List<I>> decoder, Function<I, O> transformer, Function<List<O>, byte[]> encoder) {
+        this.decoder = decoder;
+        this.transformer = transformer;
+        this.encoder = encoder;
+    }
+
+    public static <T, C extends Context> Function<ByteBuffer, List<T>> decoder(SerializerFactory<C> serializerFactory, Class<T> clazz, Charset charset, C context) {
+        requireThreadSafe(serializerFactory);
+        return buffer -> {
+            ObjectInputBuffer<C> input = new ObjectInputBuffer<>(buffer, charset, serializerFactory, context);
+            List<T> objects = new ArrayList<>();
+            while (input.remaining() > 0)
+                objects.add(input.readObject(clazz));
+            return objects;
+        };
+    }
+
+    public static <T, C extends Context> Function<List<T>, byte[]> encoder(SerializerFactory<C> serializerFactory, Charset charset, C context) {
+        requireThreadSafe(serializerFactory);
+        return objects -> {
+            try (ObjectOutputBuffer<C> output = new ObjectOutputBuffer<>(charset, serializerFactory, context)) {
+                for (T obj : objects)
+                    output.write(obj);
+                return output.toByteArray();
+            }
+        };
+    }
+
+    // Stage workers call the factory concurrently. Subclassed ReflectionSerializerFactory instances keep
+    // their plans in unsynchronized maps, so only the shared one is accepted; other factories must be thread-safe.
+    private static void requireThreadSafe(SerializerFactory<?> serializerFactory) {
+        if (serializerFactory instanceof ReflectionSerializerFactory && !((ReflectionSerializerFactory<?>) serializerFactory).isShared())
+            throw new IllegalArgumentException(serializerFactory.getClass() + " is not thread-safe");
+    }
+
+    public TranscodingPipeline<I, O> setParallelism(int decoders, int transformers, int encoders) {
+        if (decoders <= 0 || transformers <= 0 || encoders <= 0)
+            throw new IllegalArgumentException("Parallelism must be positive");
+
+        this.decoders = decoders;
+        this.transformers = transformers;
+        this.encoders = encoders;
+        return this;
+    }
+
+    public TranscodingPipeline<I, O> setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("queueCapacity: " + queueCapacity);
+
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public List<StageMetrics> getMetrics() {
+        return Collections.unmodifiableList(Arrays.asList(decodeMetrics, transformMetrics, encodeMetrics));
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void run(List<Path> sources, Function<Path, Path> target) throws UncheckedIOException {
+        List<Supplier<ByteBuffer>> suppliers = new ArrayList<>();
+        for (Path source : sources) {
+            suppliers.add(() -> {
+                try {
+                    return ByteBuffer.wrap(Files.readAllBytes(source));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        Iterator<Path> targets = sources.iterator();
+        run(suppliers.iterator(), bytes -> {
+            try {
+                Files.write(target.apply(targets.next()), bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public void run(Iterator<? extends Supplier<ByteBuffer>> sources, Consumer<byte[]> sink) throws SerializerException {
+        StageMetrics decodeMetrics = this.decodeMetrics = new StageMetrics("decode");
+        StageMetrics transformMetrics = this.transformMetrics = new StageMetrics("transform");
+        StageMetrics encodeMetrics = this.encodeMetrics = new StageMetrics("encode");
+        elapsedNanos = 0;
+
+        long start = System.nanoTime();
+        BlockingQueue<Item> decodeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> transformQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> encodeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> results = new ArrayBlockingQueue<>(queueCapacity);
+
+        Semaphore window = new Semaphore(queueCapacity + decoders + transformers + encoders);
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            long seq = 0;
+            try {
+                for (; sources.hasNext(); seq++) {
+                    window.acquire();
+                    decodeQueue.put(new Item(seq, sources.next()));
+                }
+                decodeQueue.put(POISON);
+            } catch (InterruptedException ignore) {
+            } catch (Throwable e) {
+                Item failed = new Item(seq, null);
+                failed.error = e;
+                try {
+                    decodeQueue.put(failed);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        }, "Transcoding-feeder"));
+        startStage(threads, decodeMetrics, decoders, decodeQueue, transformQueue,
+                payload -> decoder.apply(((Supplier<ByteBuffer>) payload).get()));
+        startStage(threads, transformMetrics, transformers, transformQueue, encodeQueue, payload -> {
+            List<O> objects = new ArrayList<>();
+            for (I obj : (List<I>) payload)
+                objects.add(transformer.apply(obj));
+            return objects;
+        });
+        startStage(threads, encodeMetrics, encoders, encodeQueue, results,
+                payload -> encoder.apply((List<O>) payload));
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            Map<Long, Item> pending = new HashMap<>();
+            long next = 0;
+            for (Item item = results.take(); item != POISON; item = results.take()) {
+                if (item.error != null)
+                    throw new SerializerException("Transcoding of item " + item.seq + " failed", item.error);
+
+                pending.put(item.seq, item);
+                for (Item ready; (ready = pending.remove(next)) != null; next++) {
+                    sink.accept((byte[]) ready.payload);
+                    window.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SerializerException(e);
+        } finally {
+            for (Thread thread : threads)
+                thread.interrupt();
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    private static void startStage(List<Thread> threads, StageMetrics metrics, int workers,
+                                   BlockingQueue<Item> in, BlockingQueue<Item> out, Function<Object, Object> stage) {
+        AtomicInteger active = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Item item = in.take();
+                        if (item == POISON) {
+                            in.put(POISON);
+                            if (active.decrementAndGet() == 0)
+                                out.put(POISON);
+                            return;
+                        }
+                        if (item.error == null) {
+                            long start = System.nanoTime();
+                            try {
+                                item.payload = stage.apply(item.payload);
+                            } catch (Throwable e) {
+                                item.error = e;
+                            }
+                            metrics.record(System.nanoTime() - start);
+                        }
+                        out.put(item);
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }, "Transcoding-" + metrics.getName() + "-" + i));
+        }
+    }
+
+    private static class Item {
+        final long seq;
+        Object payload;
+        Throwable error;
+
+        Item(long seq, Object payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
+
+    public static class StageMetrics {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        StageMetrics(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            items.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getItems() {
+            return items.get();
+        }
+
+        public long getBusyNanos() {
+            return busyNanos.get();
+        }
+
+        // Items divided by the busy time summed over all workers of the stage, i.e. the mean throughput of
+        // one worker while it is processing. Wall-clock throughput is getItems() / getElapsedNanos().
+        public double getItemsPerBusySecond() {
+            long nanos = busyNanos.get();
+            return nanos == 0 ? 0 : items.get() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d items, %.1f items per busy worker-second", name, getItems(), getItemsPerBusySecond());
+        }
+    }
+}
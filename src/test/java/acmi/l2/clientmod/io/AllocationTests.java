@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.io.annotation.Columnar;
+import acmi.l2.clientmod.io.annotation.Compact;
+import acmi.l2.clientmod.io.annotation.UByte;
+import acmi.l2.clientmod.io.annotation.UShort;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertTrue;
+
+public class AllocationTests {
+    private static final int WARMUP = 50000;
+    private static final int ITERATIONS = 100000;
+
+    private final ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+    @Test
+    public void readIntoReusedObjectTest() {
+        Serializer<Stats, Context> serializer = serializerFactory.forClass(Stats.class);
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(encode(stats())), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Stats stats = new Stats();
+
+        assertBudget("readObject into reused object", 0, () -> {
+            input.setPosition(0);
+            serializer.readObject(stats, input);
+        });
+    }
+
+    @Test
+    public void writeIntoReusedBufferTest() {
+        Serializer<Stats, Context> serializer = serializerFactory.forClass(Stats.class);
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Stats stats = stats();
+
+        assertBudget("writeObject into reused buffer", 0, () -> {
+            output.reset();
+            serializer.writeObject(stats, output);
+        });
+    }
+
+    @Test
+    public void flyweightTest() {
+        Point point = new Point();
+        point.x = 10;
+        point.y = 20;
+        point.id = 30;
+        Flyweight<Point> flyweight = serializerFactory.flyweight(Point.class, ByteBuffer.wrap(encode(point)));
+        int x = flyweight.getLayout().indexOf("x");
+        int id = flyweight.getLayout().indexOf("id");
+        long[] sink = new long[1];
+
+        assertBudget("flyweight access", 0, () -> {
+            flyweight.moveTo(0);
+            sink[0] += flyweight.getInt(x) + flyweight.getLong(id);
+        });
+    }
+
+    @Test
+    public void readNewObjectTest() {
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(encode(stats())), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+
+        assertBudget("readObject of a new object", 64, () -> {
+            input.setPosition(0);
+            input.readObject(Stats.class);
+        });
+    }
+
+    @Test
+    public void columnarWriteTest() {
+        Table table = table(1000);
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+
+        assertBudget("columnar write", 1000 * Row.BYTES + 1024, () -> {
+            output.reset();
+            output.write(table);
+        });
+    }
+
+    @Test
+    public void columnarReadTest() {
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(encode(table(1000))), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+
+        assertBudget("columnar read", 1000 * 48 + 1024, () -> {
+            input.setPosition(0);
+            input.readObject(Table.class);
+        });
+    }
+
+    private static Table table(int rows) {
+        Table table = new Table();
+        table.rows = new Row[rows];
+        for (int i = 0; i < rows; i++) {
+            Row row = new Row();
+            row.b = (byte) -i;
+            row.s = (short) (i * 1000);
+            row.u8 = 200 + i;
+            row.u16 = 60000 + i;
+            row.l = (long) i << 40;
+            table.rows[i] = row;
+        }
+        return table;
+    }
+
+    private static Stats stats() {
+        Stats stats = new Stats();
+        stats.hp = 1000;
+        stats.level = 85;
+        stats.exp = 123456789012L;
+        stats.speed = 1.5f;
+        stats.karma = -3;
+        stats.race = 4;
+        return stats;
+    }
+
+    private byte[] encode(Object obj) {
+        try (ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null)) {
+            output.write(obj);
+            return output.toByteArray();
+        }
+    }
+
+    private static void assertBudget(String operation, long budget, Runnable op) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        for (int i = 0; i < WARMUP; i++)
+            op.run();
+
+        long thread = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++)
+            op.run();
+        long allocated = threadBean.getThreadAllocatedBytes(thread) - before;
+
+        long perOperation = allocated / ITERATIONS;
+        assertTrue(operation + " allocated " + perOperation + " bytes per operation, budget is " + budget, perOperation <= budget);
+    }
+
+    public static class Stats {
+        public int hp;
+        @Compact
+        public int level;
+        public long exp;
+        public float speed;
+        public short karma;
+        @UShort
+        public int race;
+    }
+
+    public static class Table {
+        @Columnar
+        public Row[] rows;
+    }
+
+    public static class Row {
+        static final int BYTES = 1 + 2 + 1 + 2 + 8;
+
+        public byte b;
+        public short s;
+        @UByte
+        public int u8;
+        @UShort
+        public int u16;
+        public long l;
+    }
+
+    public static class Point {
+        public int x;
+        public int y;
+        public long id;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CompactIntTests {
+    @Test
+    public void bulkCodecFuzzTest() {
+        Random random = new Random(831);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            int[] values = new int[random.nextInt(3000)];
+            for (int i = 0; i < values.length; i++)
+                values[i] = randomValue(random);
+            int off = values.length == 0 ? 0 : random.nextInt(values.length);
+            int len = values.length - off;
+
+            ByteArrayOutputStream scalar = new ByteArrayOutputStream();
+            ObjectOutput<Context> scalarOutput = new ObjectOutputStream<>(scalar, UnrealPackage.getDefaultCharset(), null, null);
+            for (int i = off; i < off + len; i++)
+                scalarOutput.writeCompactInt(values[i]);
+
+            ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+            ObjectOutput<Context> bulkOutput = new ObjectOutputStream<>(bulk, UnrealPackage.getDefaultCharset(), null, null);
+            bulkOutput.writeCompactInts(values, off, len);
+
+            assertArrayEquals("encoding, iteration " + iteration, scalar.toByteArray(), bulk.toByteArray());
+
+            int[] expected = new int[values.length];
+            ObjectInput<Context> scalarInput = new ObjectInputStream<>(new ByteArrayInputStream(scalar.toByteArray()), UnrealPackage.getDefaultCharset(), null, null);
+            for (int i = off; i < off + len; i++)
+                expected[i] = scalarInput.readCompactInt();
+
+            int[] actual = new int[values.length];
+            ObjectInput<Context> bufferInput = new ObjectInputBuffer<>(ByteBuffer.wrap(bulk.toByteArray()), UnrealPackage.getDefaultCharset(), null, null);
+            bufferInput.readCompactInts(actual, off, len);
+            assertArrayEquals("buffer decoding, iteration " + iteration, expected, actual);
+
+            actual = new int[values.length];
+            ObjectInput<Context> streamInput = new ObjectInputStream<>(new ByteArrayInputStream(bulk.toByteArray()), UnrealPackage.getDefaultCharset(), null, null);
+            streamInput.readCompactInts(actual, off, len);
+            assertArrayEquals("stream decoding, iteration " + iteration, expected, actual);
+        }
+    }
+
+    private static int randomValue(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(128) - 64;
+            case 1:
+                return random.nextInt(1 << 14) - (1 << 13);
+            case 2:
+                return random.nextInt(1 << 21) - (1 << 20);
+            default:
+                int value = random.nextInt();
+                return value == Integer.MIN_VALUE ? Integer.MAX_VALUE : value;
+        }
+    }
+}
@@ -21,12 +21,56 @@
  */
 package acmi.l2.clientmod.io;
 
+import acmi.l2.clientmod.io.annotation.CacheEncoded;
+import acmi.l2.clientmod.io.annotation.Columnar;
+import acmi.l2.clientmod.io.annotation.Compact;
+import acmi.l2.clientmod.io.annotation.Delta;
+import acmi.l2.clientmod.io.annotation.Length;
+import acmi.l2.clientmod.io.annotation.NameRef;
+import acmi.l2.clientmod.io.annotation.Nullable;
+import acmi.l2.clientmod.io.annotation.ObjectRef;
+import acmi.l2.clientmod.io.annotation.ReadMethod;
+import acmi.l2.clientmod.io.annotation.Subtype;
+import acmi.l2.clientmod.io.annotation.UByte;
+import acmi.l2.clientmod.io.annotation.UShort;
+import acmi.l2.clientmod.io.annotation.Subtypes;
+import acmi.l2.clientmod.io.annotation.Tag;
+import acmi.l2.clientmod.io.annotation.VarInt;
+import acmi.l2.clientmod.io.annotation.WriteMethod;
+import acmi.l2.clientmod.io.annotation.ZigZag;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SerializerTests {
     @Test
@@ -48,4 +92,1722 @@ public class SerializerTests {
 
         assertEquals(testObject, deserialized);
     }
+
+    @Test
+    public void byteBufferTest() {
+        Blob blob = new Blob();
+        blob.data = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+        blob.raw = new byte[]{6, 7};
+
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(blob);
+
+        ObjectInput<Context> objectInput = new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Blob deserialized = objectInput.readObject(Blob.class);
+
+        assertTrue(deserialized.data.isReadOnly());
+        assertEquals(blob.data, deserialized.data);
+        assertEquals(ByteBuffer.wrap(blob.raw), ByteBuffer.wrap(deserialized.raw));
+    }
+
+    @Test
+    public void hierarchyMethodsTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        Leaf leaf = new Leaf();
+        leaf.a = 1;
+        leaf.b = 5;
+        leaf.c = 3;
+
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(leaf);
+        assertArrayEquals(new byte[]{1, 0, 0, 0, 5, 3, 0, 0, 0}, output.toByteArray());
+
+        Leaf read = new ObjectInputBuffer<>(ByteBuffer.wrap(output.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Leaf.class);
+        assertEquals(1, read.a);
+        assertEquals(5, read.b);
+        assertEquals(3, read.c);
+
+        Leaf copy = serializerFactory.deepCopy(leaf);
+        assertEquals(5, copy.b);
+        assertEquals(3, copy.c);
+        output.close();
+    }
+
+    public static class Base {
+        public int a;
+    }
+
+    public static class Middle extends Base {
+        public int b;
+
+        @ReadMethod
+        public void read(ObjectInput<Context> input) {
+            b = input.readCompactInt();
+        }
+
+        @WriteMethod
+        public void write(ObjectOutput<Context> output) {
+            output.writeCompactInt(b);
+        }
+    }
+
+    public static class Leaf extends Middle {
+        public int c;
+    }
+
+    @Test
+    public void deepCopyTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        SerializerFactory<Context> delegating = new SerializerFactory<Context>() {
+            @Override
+            public <T> Serializer<T, Context> forClass(Class<T> clazz) {
+                return serializerFactory.forClass(clazz);
+            }
+        };
+
+        TestClass testObject = new TestClass();
+        testObject.foo = new int[]{0, 123};
+        testObject.bar = "bar";
+        testObject.baz = new TestClass.InnerClassExtends(1, 2);
+        assertEquals(testObject, serializerFactory.deepCopy(testObject));
+        assertEquals(testObject, delegating.deepCopy(testObject));
+
+        Scene scene = new Scene();
+        scene.main = new Circle(1, 5);
+        scene.shapes = new Shape[]{new Shape(2), new Square(3, 4)};
+        Scene sceneCopy = serializerFactory.deepCopy(scene);
+        assertEquals(scene.main, sceneCopy.main);
+        assertArrayEquals(scene.shapes, sceneCopy.shapes);
+
+        Packet packet = new Packet();
+        packet.id = 7;
+        packet.payload = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        Packet copy = serializerFactory.deepCopy(packet);
+        Packet delegatingCopy = delegating.deepCopy(packet);
+
+        Packet other = new Packet();
+        other.id = -1;
+        other.payload = ByteBuffer.wrap(new byte[]{9, 9, 9, 9});
+        serializerFactory.deepCopy(other);
+        delegating.deepCopy(other);
+
+        assertEquals(7, copy.id);
+        assertEquals(packet.payload, copy.payload);
+        assertEquals(packet.payload, delegatingCopy.payload);
+    }
+
+    public static class Packet {
+        public int id;
+        public ByteBuffer payload;
+
+        @ReadMethod
+        public void read(ObjectInput<Context> input) {
+            id = input.readInt();
+            payload = input.readBuffer(input.readCompactInt());
+        }
+
+        @WriteMethod
+        public void write(ObjectOutput<Context> output) {
+            output.writeInt(id);
+            output.writeCompactInt(payload.remaining());
+            output.writeBuffer(payload);
+        }
+    }
+
+    @Test
+    public void incrementalDecoderTest() {
+        Scene scene = new Scene();
+        scene.main = new Square(1, 2);
+        scene.shapes = new Shape[]{new Circle(3, 4), new Shape(5)};
+
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(scene);
+        objectOutput.write(scene);
+        byte[] bytes = baos.toByteArray();
+
+        IncrementalDecoder<Scene, Context> decoder = new IncrementalDecoder<>(serializerFactory, Scene.class, UnrealPackage.getDefaultCharset(), null);
+        int decoded = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.feed(bytes, i, 1);
+            Scene deserialized = decoder.decode();
+            if (deserialized != null) {
+                assertEquals(scene.main, deserialized.main);
+                assertArrayEquals(scene.shapes, deserialized.shapes);
+                decoded++;
+            }
+        }
+        assertEquals(2, decoded);
+        assertEquals(0, decoder.buffered());
+        assertNull(decoder.decode());
+    }
+
+    @Test
+    public void incrementalDecoderResumeTest() {
+        Group group = new Group();
+        group.id = 1;
+        group.members = new Vertex[100];
+        for (int i = 0; i < group.members.length; i++) {
+            group.members[i] = new Vertex();
+            group.members[i].position = new float[]{i, i, i};
+            group.members[i].id = i;
+        }
+        Node leaf = new Node();
+        leaf.id = 2;
+        Tree tree = new Tree();
+        tree.root = group;
+        tree.nodes = new Node[]{leaf, group};
+
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(tree);
+        byte[] bytes = output.toByteArray();
+        output.close();
+
+        IncrementalDecoder<Tree, Context> decoder = new IncrementalDecoder<>(serializerFactory, Tree.class, UnrealPackage.getDefaultCharset(), null);
+        Tree read = null;
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.feed(bytes, i, 1);
+            read = decoder.decode();
+            if (i < bytes.length - 1) {
+                assertNull(read);
+                if (i == bytes.length / 2)
+                    assertTrue(decoder.getPosition() > bytes.length / 4);
+            }
+        }
+        assertNull(read.name);
+        assertEquals(99, ((Group) read.root).members[99].id);
+        assertEquals(2, read.nodes[0].id);
+        assertEquals(Node.class, read.nodes[0].getClass());
+        assertEquals(100, ((Group) read.nodes[1]).members.length);
+        assertEquals(0, decoder.buffered());
+    }
+
+    public static class Tree {
+        @Nullable
+        public String name;
+        @Nullable
+        public Node root;
+        public Node[] nodes;
+    }
+
+    @Subtypes({
+            @Subtype(tag = 0, value = Node.class),
+            @Subtype(tag = 1, value = Group.class)
+    })
+    public static class Node {
+        public int id;
+    }
+
+    public static class Group extends Node {
+        @Length(Length.Type.INT)
+        public Vertex[] members;
+    }
+
+    @Test
+    public void incrementalDecoderBufferTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        for (int i = 1; i <= 2; i++) {
+            Blob blob = new Blob();
+            byte[] data = new byte[3000];
+            Arrays.fill(data, (byte) i);
+            blob.data = ByteBuffer.wrap(data);
+            blob.raw = new byte[0];
+            objectOutput.write(blob);
+        }
+        byte[] bytes = baos.toByteArray();
+
+        IncrementalDecoder<Blob, Context> decoder = new IncrementalDecoder<>(serializerFactory, Blob.class, UnrealPackage.getDefaultCharset(), null);
+        decoder.feed(bytes, 0, 3100);
+        Blob first = decoder.decode();
+        decoder.feed(bytes, 3100, bytes.length - 3100);
+        Blob second = decoder.decode();
+
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(1, first.data.get(i));
+            assertEquals(2, second.data.get(i));
+        }
+    }
+
+    @Test
+    public void deltaTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Scene previous = new Scene();
+        previous.main = new Circle(1, 5);
+        previous.shapes = new Shape[]{new Shape(2), new Square(3, 4), new Circle(5, 6), new Square(7, 8)};
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(previous);
+        objectOutput.write(previous);
+        int fullSize = baos.size() / 2;
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Scene current = objectInput.readObject(Scene.class);
+        Scene target = objectInput.readObject(Scene.class);
+        ((Circle) current.main).radius = 50;
+        current.shapes[2] = new Square(9, 10);
+
+        DeltaSerializer<Context> deltaSerializer = new DeltaSerializer<>(serializerFactory);
+        baos = new ByteArrayOutputStream();
+        objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        deltaSerializer.writeDelta(previous, current, objectOutput);
+        assertTrue(baos.size() < fullSize);
+
+        objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        deltaSerializer.applyDelta(target, objectInput);
+        assertEquals(current.main, target.main);
+        assertArrayEquals(current.shapes, target.shapes);
+    }
+
+    public static class Blob {
+        @Length(Length.Type.INT)
+        public ByteBuffer data;
+        public byte[] raw;
+    }
+
+    @Test
+    public void allocationBudgetTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Blob blob = new Blob();
+        blob.data = ByteBuffer.wrap(new byte[200000]);
+        blob.raw = new byte[300000];
+        blob.raw[299999] = 7;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(blob);
+
+        ObjectInputStream<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Blob read = objectInput.readObject(Blob.class);
+        assertEquals(200000, read.data.remaining());
+        assertEquals(7, read.raw[299999]);
+
+        byte[] hostile = {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, 1, 2, 3};
+        try {
+            new ObjectInputStream<>(new ByteArrayInputStream(hostile), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Blob.class);
+            fail();
+        } catch (UncheckedIOException expected) {
+        }
+
+        ObjectInputStream<Context> limited = new ObjectInputStream<>(new ByteArrayInputStream(hostile), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        limited.setAllocationBudget(new AllocationBudget(0x100000, 0x1000000));
+        try {
+            limited.readObject(Blob.class);
+            fail();
+        } catch (SerializerException expected) {
+        }
+
+        ObjectOutputBuffer<Context> strings = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        strings.writeCompactInt(-0x10000000);
+        strings.writeInt(0x10000000);
+        ObjectInputBuffer<Context> stringInput = new ObjectInputBuffer<>(ByteBuffer.wrap(strings.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        stringInput.setAllocationBudget(new AllocationBudget(0x100000, 0x1000000));
+        try {
+            stringInput.readLine();
+            fail();
+        } catch (SerializerException expected) {
+        }
+        stringInput.setPosition(5);
+        try {
+            stringInput.readUTF();
+            fail();
+        } catch (SerializerException expected) {
+        }
+        strings.close();
+    }
+
+    @Test
+    public void parallelWriterTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        World world = new World();
+        world.name = "world";
+        world.origin = new Vertex();
+        world.origin.position = new float[]{1, 2, 3};
+        world.vertices = new Vertex[1000];
+        for (int i = 0; i < world.vertices.length; i++) {
+            world.vertices[i] = new Vertex();
+            world.vertices[i].position = new float[]{i, -i, i * i};
+            world.vertices[i].color = i & 0xff;
+            world.vertices[i].id = i;
+        }
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(sequential, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(world);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        new ParallelObjectWriter<>(serializerFactory, ForkJoinPool.commonPool(), 64, 3)
+                .write(world, new ObjectOutputStream<>(parallel, UnrealPackage.getDefaultCharset(), serializerFactory, null));
+        assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+    }
+
+    @Test
+    public void parallelWriterPositionTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Aligned aligned = new Aligned();
+        aligned.name = "abc";
+        aligned.vertices = new Vertex[200];
+        for (int i = 0; i < aligned.vertices.length; i++) {
+            aligned.vertices[i] = new Vertex();
+            aligned.vertices[i].position = new float[]{i, i, i};
+        }
+        aligned.tail = new Padded4();
+        aligned.tail.value = 7;
+
+        ObjectOutputBuffer<Context> sequential = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        sequential.writeByte(1);
+        sequential.write(aligned);
+        ObjectOutputBuffer<Context> parallel = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        parallel.writeByte(1);
+        new ParallelObjectWriter<>(serializerFactory, ForkJoinPool.commonPool(), 16, 3).write(aligned, parallel);
+        assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+
+        Padded4 head = new Padded4();
+        head.value = 9;
+        sequential.reset();
+        sequential.writeByte(1);
+        sequential.write(head);
+        parallel.reset();
+        parallel.writeByte(1);
+        new ParallelObjectWriter<>(serializerFactory).write(head, parallel);
+        assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+        sequential.close();
+        parallel.close();
+
+        try {
+            new ParallelObjectWriter<>(new ReflectionSerializerFactory<Context>() {
+            });
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    public static class Aligned {
+        public String name;
+        @Length(Length.Type.INT)
+        public Vertex[] vertices;
+        public Padded4 tail;
+    }
+
+    public static class Padded4 {
+        public int value;
+
+        @ReadMethod
+        public void read(ObjectInput<Context> input) {
+            while (input.getPosition() % 4 != 0)
+                input.readUnsignedByte();
+            value = input.readInt();
+        }
+
+        @WriteMethod
+        public void write(ObjectOutput<Context> output) {
+            while (output.getPosition() % 4 != 0)
+                output.writeByte(0);
+            output.writeInt(value);
+        }
+    }
+
+    @Test
+    public void walkerTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        World world = new World();
+        world.name = "world";
+        world.origin = new Vertex();
+        world.origin.position = new float[]{1, 2, 3};
+        world.vertices = new Vertex[10];
+        for (int i = 0; i < world.vertices.length; i++) {
+            world.vertices[i] = new Vertex();
+            world.vertices[i].position = new float[3];
+            world.vertices[i].id = i;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(world);
+
+        long[] ids = new long[2];
+        String[] name = new String[1];
+        SerializationWalker<Context> walker = new SerializationWalker<>(serializerFactory);
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        walker.walk(World.class, input, new SerializationVisitor() {
+            @Override
+            public void visitString(Field field, String value) {
+                name[0] = value;
+            }
+
+            @Override
+            public void visitLong(Field field, long value) {
+                ids[0]++;
+                ids[1] += value;
+            }
+        });
+        assertEquals("world", name[0]);
+        assertEquals(11, ids[0]);
+        assertEquals(45, ids[1]);
+        assertEquals(0, input.remaining());
+
+        ids[0] = 0;
+        walker.walk(World.class, new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null), new SerializationVisitor() {
+            @Override
+            public boolean beginArray(Field field, Class<?> componentType, int length) {
+                return field.getName().equals("position");
+            }
+
+            @Override
+            public void visitFloat(Field field, float value) {
+                ids[0]++;
+            }
+        });
+        assertEquals(3, ids[0]);
+    }
+
+    @Test
+    public void walkerEncodedTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        Encoded encoded = new Encoded();
+        encoded.label = "label";
+        encoded.compact = new int[]{1, -100, 100000};
+        encoded.delta = new long[]{10, 5, 1L << 40};
+        encoded.zigZag = new int[]{-1, 2, -3};
+        encoded.raw = new byte[]{1, 2, 3};
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(encoded);
+
+        List<Object> visited = new ArrayList<>();
+        SerializationWalker<Context> walker = new SerializationWalker<>(serializerFactory);
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        walker.walk(Encoded.class, input, new SerializationVisitor() {
+            @Override
+            public void visitInt(Field field, int value) {
+                visited.add(value);
+            }
+
+            @Override
+            public void visitLong(Field field, long value) {
+                visited.add(value);
+            }
+
+            @Override
+            public void visitString(Field field, String value) {
+                visited.add(value);
+            }
+
+            @Override
+            public void visitBytes(Field field, ByteBuffer value) {
+                visited.add(value.remaining());
+            }
+        });
+        assertEquals(Arrays.asList("label", 1, -100, 100000, 10L, 5L, 1L << 40, -1, 2, -3, 3), visited);
+        assertEquals(0, input.remaining());
+
+        for (ObjectInput<Context> skipped : Arrays.<ObjectInput<Context>>asList(
+                new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null),
+                new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null))) {
+            walker.walk(Encoded.class, skipped, new SerializationVisitor() {
+                @Override
+                public boolean beginObject(Field field, Class<?> type) {
+                    return false;
+                }
+
+                @Override
+                public void visitString(Field field, String value) {
+                    fail();
+                }
+            });
+            assertEquals(baos.size(), skipped.getPosition());
+        }
+    }
+
+    public static class Encoded {
+        public String label;
+        @Compact
+        public int[] compact;
+        @Delta
+        public long[] delta;
+        @ZigZag
+        public int[] zigZag;
+        public byte[] raw;
+    }
+
+    @Test
+    public void cacheEncodedTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Template template = new Template();
+        template.name = "template";
+        template.value = 1;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(template);
+        template.value = 2;
+        objectOutput.write(template);
+        Template other = new Template();
+        other.name = "template";
+        other.value = 3;
+        objectOutput.write(other);
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        assertEquals(1, objectInput.readObject(Template.class).value);
+        assertEquals(1, objectInput.readObject(Template.class).value);
+        assertEquals(3, objectInput.readObject(Template.class).value);
+
+        ObjectOutputBuffer<Context> parallel = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        new ParallelObjectWriter<>(serializerFactory).write(template, parallel);
+        assertEquals(1, new ObjectInputBuffer<>(ByteBuffer.wrap(parallel.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Template.class).value);
+        parallel.close();
+
+        CachedAligned cachedAligned = new CachedAligned();
+        cachedAligned.padded = new Padded4();
+        try (ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null)) {
+            output.write(cachedAligned);
+            fail();
+        } catch (SerializerException expected) {
+        }
+    }
+
+    @CacheEncoded
+    public static class Template {
+        public String name;
+        public int value;
+    }
+
+    @CacheEncoded
+    public static class CachedAligned {
+        public Padded4 padded;
+    }
+
+    @Test
+    public void enumTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Unit unit = new Unit();
+        unit.color = Color.BLUE;
+        unit.kind = Kind.NPC;
+        unit.colors = EnumSet.of(Color.RED, Color.BLUE);
+        unit.kinds = EnumSet.of(Kind.ITEM);
+        unit.counts = new EnumMap<>(Color.class);
+        unit.counts.put(Color.GREEN, 300);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(unit);
+        assertEquals(1 + 1 + 1 + 2 + 1 + 2, baos.size());
+
+        Unit read = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Unit.class);
+        assertEquals(Color.BLUE, read.color);
+        assertEquals(Kind.NPC, read.kind);
+        assertEquals(unit.colors, read.colors);
+        assertEquals(unit.kinds, read.kinds);
+        assertEquals(unit.counts, read.counts);
+
+        Unit copy = serializerFactory.deepCopy(unit);
+        assertEquals(unit.counts, copy.counts);
+        assertTrue(unit.colors != copy.colors);
+    }
+
+    public enum Color {
+        RED, GREEN, BLUE
+    }
+
+    public enum Kind {
+        @Tag(10) ITEM,
+        @Tag(20) NPC
+    }
+
+    public static class Unit {
+        public Color color;
+        @UByte
+        public Kind kind;
+        public EnumSet<Color> colors;
+        public EnumSet<Kind> kinds;
+        @Compact
+        public EnumMap<Color, Integer> counts;
+    }
+
+    public static class World {
+        public String name;
+        public Vertex origin;
+        @Length(Length.Type.INT)
+        public Vertex[] vertices;
+    }
+
+    @Test
+    public void transcodingPipelineTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        List<Supplier<ByteBuffer>> sources = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+            for (int j = 0; j < 3; j++) {
+                Vertex vertex = new Vertex();
+                vertex.position = new float[]{i, j, 0};
+                vertex.color = j;
+                vertex.id = i * 3 + j;
+                output.write(vertex);
+            }
+            ByteBuffer buffer = output.toByteBuffer();
+            sources.add(() -> buffer.duplicate());
+        }
+
+        TranscodingPipeline<Vertex, Vertex> pipeline = new TranscodingPipeline<>(
+                TranscodingPipeline.decoder(serializerFactory, Vertex.class, UnrealPackage.getDefaultCharset(), null),
+                vertex -> {
+                    vertex.color += 100;
+                    return vertex;
+                },
+                TranscodingPipeline.encoder(serializerFactory, UnrealPackage.getDefaultCharset(), null))
+                .setParallelism(2, 3, 2)
+                .setQueueCapacity(4);
+        List<byte[]> results = new ArrayList<>();
+        pipeline.run(sources.iterator(), results::add);
+
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(results.get(i)), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+            for (int j = 0; j < 3; j++) {
+                Vertex vertex = input.readObject(Vertex.class);
+                assertEquals(i * 3 + j, vertex.id);
+                assertEquals(100 + j, vertex.color);
+            }
+        }
+        for (TranscodingPipeline.StageMetrics metrics : pipeline.getMetrics())
+            assertEquals(100, metrics.getItems());
+
+        pipeline.run(sources.subList(0, 10).iterator(), results::add);
+        for (TranscodingPipeline.StageMetrics metrics : pipeline.getMetrics())
+            assertEquals(10, metrics.getItems());
+
+        try {
+            TranscodingPipeline.decoder(new ReflectionSerializerFactory<Context>() {
+            }, Vertex.class, UnrealPackage.getDefaultCharset(), null);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+
+        sources.set(50, () -> ByteBuffer.wrap(new byte[]{1}));
+        try {
+            pipeline.run(sources.iterator(), bytes -> {
+            });
+            fail();
+        } catch (SerializerException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+
+        TranscodingPipeline<Vertex, Vertex> failing = new TranscodingPipeline<>(
+                TranscodingPipeline.decoder(serializerFactory, Vertex.class, UnrealPackage.getDefaultCharset(), null),
+                vertex -> {
+                    throw new StackOverflowError();
+                },
+                TranscodingPipeline.encoder(serializerFactory, UnrealPackage.getDefaultCharset(), null));
+        try {
+            failing.run(sources.subList(0, 10).iterator(), bytes -> {
+            });
+            fail();
+        } catch (SerializerException e) {
+            assertTrue(e.getCause() instanceof StackOverflowError);
+        }
+
+        Iterator<Supplier<ByteBuffer>> broken = new Iterator<Supplier<ByteBuffer>>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Supplier<ByteBuffer> next() {
+                throw new NoSuchElementException();
+            }
+        };
+        try {
+            pipeline.run(broken, bytes -> {
+            });
+            fail();
+        } catch (SerializerException e) {
+            assertTrue(e.getCause() instanceof NoSuchElementException);
+        }
+    }
+
+    @Test
+    public void sharedPlansTest() {
+        ReflectionSerializerFactory<Context> first = new ReflectionSerializerFactory<>();
+        ReflectionSerializerFactory<Context> second = new ReflectionSerializerFactory<>();
+        assertTrue(first.forClass(Vertex.class) == second.forClass(Vertex.class));
+        assertTrue(first.layoutForClass(Vertex.class) == second.layoutForClass(Vertex.class));
+
+        ReflectionSerializerFactory<Context> custom = new ReflectionSerializerFactory<Context>() {
+        };
+        assertTrue(custom.forClass(Vertex.class) != first.forClass(Vertex.class));
+        assertTrue(custom.forClass(Vertex.class) == custom.forClass(Vertex.class));
+    }
+
+    @Test
+    public void sharedPlansLoaderTest() throws Exception {
+        ClassLoader loader = new PluginLoader(SerializerTests.class.getClassLoader());
+        Class<?> pluginVertex = loader.loadClass(PluginVertex.class.getName());
+        int[] resolved = new int[1];
+        ReflectionSerializerFactory.InlineCache<String> inlineCache = new ReflectionSerializerFactory.InlineCache<>(Vertex.class, clazz -> {
+            resolved[0]++;
+            return clazz.getName();
+        });
+
+        inlineCache.get(Vertex.class);
+        inlineCache.get(Vertex.class);
+        assertEquals(1, resolved[0]);
+        inlineCache.get(pluginVertex);
+        inlineCache.get(pluginVertex);
+        assertEquals(3, resolved[0]);
+
+        World world = new World();
+        world.name = "plugin";
+        world.origin = (Vertex) pluginVertex.newInstance();
+        world.origin.position = new float[3];
+        world.vertices = new Vertex[]{world.origin};
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), new ReflectionSerializerFactory<>(), null);
+        output.write(world);
+        output.write(world);
+        output.close();
+    }
+
+    @Test
+    public void sharedPlansOverrideTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        serializerFactory.forClass(World.class);
+        serializerFactory.cache.put(Vertex.class, new Serializer<Vertex, Context>() {
+            @Override
+            public Vertex instantiate(ObjectInput<Context> input) {
+                return new Vertex();
+            }
+
+            @Override
+            public <S extends Vertex> void readObject(S obj, ObjectInput<Context> input) {
+                input.readUnsignedByte();
+            }
+
+            @Override
+            public <S extends Vertex> void writeObject(S obj, ObjectOutput<Context> output) {
+                output.writeByte(0x55);
+            }
+        });
+        assertTrue(!serializerFactory.isShared());
+
+        World world = new World();
+        world.name = "w";
+        world.origin = new Vertex();
+        world.vertices = new Vertex[]{new Vertex()};
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(world);
+        assertArrayEquals(new byte[]{2, 'w', 0, 0x55, 1, 0, 0, 0, 0x55}, output.toByteArray());
+        output.close();
+    }
+
+    public static class PluginVertex extends Vertex {
+        public int flags;
+    }
+
+    private static class PluginLoader extends ClassLoader {
+        PluginLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(PluginVertex.class.getName()))
+                return super.loadClass(name, resolve);
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz != null)
+                    return clazz;
+
+                try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[0x1000];
+                    for (int n; (n = in.read(buffer)) > 0; )
+                        bytes.write(buffer, 0, n);
+                    return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void primitiveFieldTest() {
+        ReflectionSerializerFactory<Context> fast = new ReflectionSerializerFactory<>();
+        ReflectionSerializerFactory<Context> boxed = new ReflectionSerializerFactory<Context>() {
+            @Override
+            protected <T> boolean primitiveField(Field field, List<BiConsumer<T, ObjectInput<Context>>> read, List<BiConsumer<T, ObjectOutput<Context>>> write) {
+                return false;
+            }
+        };
+
+        Primitives primitives = new Primitives();
+        primitives.b = -2;
+        primitives.s = -300;
+        primitives.sv = -300;
+        primitives.sz = -300;
+        primitives.i = -70000;
+        primitives.ic = -70000;
+        primitives.iv = -70000;
+        primitives.iz = -70000;
+        primitives.iu = 65000;
+        primitives.ib = 250;
+        primitives.l = -1L << 40;
+        primitives.lv = -1L << 40;
+        primitives.lz = -1L << 40;
+        primitives.f = 1.5f;
+
+        ObjectOutputBuffer<Context> fastOutput = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), fast, null);
+        fastOutput.write(primitives);
+        ObjectOutputBuffer<Context> boxedOutput = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), boxed, null);
+        boxedOutput.write(primitives);
+        assertArrayEquals(boxedOutput.toByteArray(), fastOutput.toByteArray());
+
+        Primitives read = new ObjectInputBuffer<>(boxedOutput.toByteBuffer(), UnrealPackage.getDefaultCharset(), fast, null).readObject(Primitives.class);
+        ObjectOutputBuffer<Context> again = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), boxed, null);
+        again.write(read);
+        assertArrayEquals(fastOutput.toByteArray(), again.toByteArray());
+        fastOutput.close();
+        boxedOutput.close();
+        again.close();
+    }
+
+    public static class Primitives {
+        public byte b;
+        public short s;
+        @VarInt
+        public short sv;
+        @ZigZag
+        public short sz;
+        public int i;
+        @Compact
+        public int ic;
+        @VarInt
+        public int iv;
+        @ZigZag
+        public int iz;
+        @UShort
+        public int iu;
+        @UByte
+        public int ib;
+        public long l;
+        @VarInt
+        public long lv;
+        @ZigZag
+        public long lz;
+        public float f;
+    }
+
+    @Test
+    public void checksumTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ChecksumObjectOutput<Context> output = new ChecksumObjectOutput<>(new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null));
+        for (int i = 0; i < 3; i++) {
+            Vertex vertex = new Vertex();
+            vertex.position = new float[]{i, i, i};
+            vertex.color = i;
+            output.writeChecksummed(vertex);
+        }
+        byte[] data = baos.toByteArray();
+
+        ChecksumObjectInput<Context> input = new ChecksumObjectInput<>(new ObjectInputStream<>(new ByteArrayInputStream(data), UnrealPackage.getDefaultCharset(), serializerFactory, null));
+        for (int i = 0; i < 3; i++)
+            assertEquals(i, input.readChecksummed(Vertex.class).color);
+
+        data[data.length - 10]++;
+        ChecksumObjectInput<Context> corrupted = new ChecksumObjectInput<>(new ObjectInputStream<>(new ByteArrayInputStream(data), UnrealPackage.getDefaultCharset(), serializerFactory, null));
+        corrupted.readChecksummed(Vertex.class);
+        corrupted.readChecksummed(Vertex.class);
+        try {
+            corrupted.readChecksummed(Vertex.class);
+            fail();
+        } catch (SerializerException expected) {
+        }
+    }
+
+    @Test
+    public void checksumWireFormatTest() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        ObjectOutputBuffer<Context> buffer = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), null, null);
+        ChecksumObjectOutput<Context> output = new ChecksumObjectOutput<>(buffer);
+        output.writeBytes(check, 0, check.length);
+        output.writeChecksum();
+
+        byte[] expected = Arrays.copyOf(check, check.length + 4);
+        expected[9] = 0x26;
+        expected[10] = 0x39;
+        expected[11] = (byte) 0xf4;
+        expected[12] = (byte) 0xcb;
+        assertArrayEquals(expected, buffer.toByteArray());
+        buffer.close();
+
+        ChecksumObjectInput<Context> input = new ChecksumObjectInput<>(new ObjectInputBuffer<>(ByteBuffer.wrap(expected), UnrealPackage.getDefaultCharset(), null, null));
+        input.readFully(new byte[9], 0, 9);
+        input.verifyChecksum();
+    }
+
+    @Test
+    public void indexedTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IndexedObjectWriter<Context> writer = new IndexedObjectWriter<>(new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null));
+        for (int i = 0; i < 50; i++) {
+            Vertex vertex = new Vertex();
+            vertex.position = new float[3];
+            vertex.color = i;
+            writer.put("vertex" + (49 - i), vertex);
+        }
+        writer.finish();
+
+        IndexedObjectReader<Context> reader = new IndexedObjectReader<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null, 8);
+        assertEquals(50, reader.size());
+        assertEquals(49, reader.get("vertex0", Vertex.class).color);
+        assertEquals(7, reader.get("vertex42", Vertex.class).color);
+        assertTrue(reader.get("vertex42", Vertex.class) == reader.get("vertex42", Vertex.class));
+        assertNull(reader.get("vertex50", Vertex.class));
+
+        byte[] corrupt = baos.toByteArray();
+        ByteBuffer footer = ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN);
+        int indexOffset = footer.getInt(corrupt.length - 4);
+        corrupt[indexOffset] = (byte) 0x7f;
+        corrupt[indexOffset + 1] = (byte) 0xff;
+        corrupt[indexOffset + 2] = (byte) 0xff;
+        corrupt[indexOffset + 3] = (byte) 0xff;
+        corrupt[indexOffset + 4] = (byte) 0x0f;
+        try {
+            new IndexedObjectReader<>(ByteBuffer.wrap(corrupt), UnrealPackage.getDefaultCharset(), serializerFactory, null, 0);
+            fail();
+        } catch (SerializerException expected) {
+        }
+        try {
+            new IndexedObjectReader<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null, 0, new AllocationBudget(10, 0x1000000));
+            fail();
+        } catch (SerializerException expected) {
+        }
+    }
+
+    @Test
+    public void referenceTest() {
+        Vertex first = new Vertex();
+        Vertex second = new Vertex();
+        ReferenceTable<String> names = new ReferenceTable<>(Arrays.asList("None", "Core", "Engine"));
+        ReferenceTable<Vertex> objects = new ReferenceTable<>(Arrays.asList(first, second));
+        Context context = new Context() {
+            @Override
+            public ReferenceTable<String> getNameTable() {
+                return names;
+            }
+
+            @Override
+            public ReferenceTable<?> getObjectTable() {
+                return objects;
+            }
+        };
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Link link = new Link();
+        link.name = new String("Engine");
+        link.target = second;
+        link.path = new Vertex[]{first, null, second};
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, context).write(link);
+        assertEquals(6, baos.size());
+
+        Link read = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, context).readObject(Link.class);
+        assertTrue(read.name == names.get(2));
+        assertTrue(read.target == second);
+        assertArrayEquals(new Object[]{first, null, second}, read.path);
+        assertTrue(serializerFactory.deepCopy(link).target == second);
+
+        LinkedLeaf leaf = new LinkedLeaf();
+        leaf.b = 4;
+        leaf.link = link;
+        try {
+            serializerFactory.deepCopy(leaf);
+            fail();
+        } catch (SerializerException expected) {
+        }
+        LinkedLeaf leafCopy = serializerFactory.deepCopy(leaf, context);
+        assertEquals(4, leafCopy.b);
+        assertTrue(leafCopy.link != link);
+        assertTrue(leafCopy.link.name == names.get(2));
+        assertTrue(leafCopy.link.target == second);
+    }
+
+    public static class LinkedLeaf extends Middle {
+        public Link link;
+    }
+
+    public static class Link {
+        @NameRef
+        public String name;
+        @ObjectRef
+        public Vertex target;
+        @ObjectRef
+        public Vertex[] path;
+    }
+
+    @Test
+    public void nullableTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Sparse sparse = new Sparse();
+        sparse.id = 5;
+        sparse.vertex = new Vertex();
+        sparse.vertex.position = new float[3];
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(sparse);
+        sparse.vertex = null;
+        objectOutput.write(sparse);
+        assertEquals(1 + 4 + 21 + 1 + 4, baos.size());
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Sparse first = objectInput.readObject(Sparse.class);
+        assertNull(first.name);
+        assertEquals(5, first.id);
+        assertEquals(0, first.vertex.color);
+        Sparse second = objectInput.readObject(Sparse.class);
+        assertNull(second.vertex);
+        assertEquals(5, second.id);
+    }
+
+    public static class Sparse {
+        @Nullable
+        public String name;
+        public int id;
+        @Nullable
+        public Vertex vertex;
+    }
+
+    @Test
+    public void nullablePrivateFieldsTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Hidden hidden = new Hidden();
+        hidden.label = "a";
+        hidden.count = 7;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null).write(hidden);
+
+        Hidden read = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Hidden.class);
+        assertEquals("a", read.label);
+        assertNull(read.vertex);
+        assertEquals(7, read.count);
+    }
+
+    public static class Hidden {
+        @Nullable
+        private String label;
+        @Nullable
+        private Vertex vertex;
+        private int count;
+    }
+
+    @Test
+    public void outputBufferPoolTest() {
+        List<byte[]> released = new ArrayList<>();
+        BufferPool pool = new BufferPool(0x100, 0x1000, 4) {
+            @Override
+            public void release(byte[] buffer) {
+                released.add(buffer);
+                super.release(buffer);
+            }
+        };
+
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), 10, new ReflectionSerializerFactory<>(), null, pool);
+        output.writeInt(1);
+        assertEquals(14, output.getPosition());
+        output.reset();
+        assertEquals(0, output.getPosition());
+        output.reset(100);
+        output.writeByte(1);
+        assertEquals(101, output.getPosition());
+        assertEquals(1, output.size());
+
+        output.writeBytes(new byte[0x300], 0, 0x300);
+        assertEquals(1, released.size());
+        assertEquals(0x100, released.get(0).length);
+        assertTrue(pool.lease(0x100) == released.get(0));
+
+        output.writeBytes(new byte[0x2000], 0, 0x2000);
+        assertEquals(2, released.size());
+        assertEquals(0x400, released.get(1).length);
+        assertEquals(100 + 1 + 0x300 + 0x2000, output.getPosition());
+
+        output.close();
+        assertEquals(3, released.size());
+        byte[] oversize = released.get(2);
+        assertTrue(oversize.length > 0x1000);
+        assertTrue(pool.lease(oversize.length) != oversize);
+        assertTrue(pool.lease(0x400) == released.get(1));
+        try {
+            output.writeByte(0);
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+        try {
+            output.toByteBuffer();
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+
+        released.clear();
+        ObjectOutputBuffer<Context> exposed = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), 0, new ReflectionSerializerFactory<>(), null, pool);
+        exposed.writeInt(7);
+        ByteBuffer view = exposed.toByteBuffer();
+        exposed.reset();
+        exposed.writeInt(8);
+        exposed.writeBytes(new byte[0x200], 0, 0x200);
+        exposed.close();
+        assertEquals(2, released.size());
+        assertEquals(0x100, released.get(0).length);
+        assertEquals(0x400, released.get(1).length);
+        assertEquals(7, view.order(ByteOrder.LITTLE_ENDIAN).getInt(0));
+    }
+
+    @Test
+    public void segmentedOutputTest() throws IOException {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        SegmentedObjectOutput<Context> output = new SegmentedObjectOutput<>(UnrealPackage.getDefaultCharset(), 0, serializerFactory, null, new BufferPool(0x100, 0x10000, 4), 0x100, 0x1000);
+
+        int[] values = new int[3000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 64 + i;
+        output.writeCompactInts(values, 0, values.length);
+
+        byte[] copied = new byte[0x2000];
+        Arrays.fill(copied, (byte) 1);
+        output.writeBytes(copied, 0, copied.length);
+        Arrays.fill(copied, (byte) 2);
+
+        ByteBuffer referenced = ByteBuffer.allocate(0x1000);
+        output.writeBuffer(referenced);
+        int segments = output.getSegments().length;
+        output.writeBuffer(ByteBuffer.allocate(0x10));
+        assertEquals(segments + 1, output.getSegments().length);
+        assertTrue(output.getSegments()[segments - 1].array() == referenced.array());
+
+        Path file = Files.createTempFile("segmented", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            assertEquals(output.size(), output.writeTo(channel));
+            assertArrayEquals(output.toByteArray(), Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+
+        ObjectInputBuffer<Context> input = new ObjectInputBuffer<>(ByteBuffer.wrap(output.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        for (int value : values)
+            assertEquals(value, input.readCompactInt());
+        byte[] bytes = new byte[copied.length];
+        input.readFully(bytes, 0, bytes.length);
+        for (byte b : bytes)
+            assertEquals(1, b);
+        assertEquals(0x1000 + 0x10, input.remaining());
+
+        Blob blob = new Blob();
+        blob.data = ByteBuffer.allocate(0);
+        blob.raw = new byte[0x1000];
+        output.reset();
+        output.write(blob);
+        ByteBuffer[] blobSegments = output.getSegments();
+        assertTrue(blobSegments[blobSegments.length - 1].array() == blob.raw);
+
+        Pipe pipe = Pipe.open();
+        try (Pipe.SourceChannel source = pipe.source(); Pipe.SinkChannel sink = pipe.sink()) {
+            sink.configureBlocking(false);
+            output.writeTo(sink);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+        output.close();
+    }
+
+    @Test
+    public void readAheadTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        for (int i = 0; i < 1000; i++) {
+            Vertex vertex = new Vertex();
+            vertex.position = new float[]{i, i, i};
+            vertex.id = i;
+            objectOutput.write(vertex);
+        }
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ReadAheadInputStream(new ByteArrayInputStream(baos.toByteArray()), 100), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, objectInput.readObject(Vertex.class).id);
+        assertEquals(baos.size(), objectInput.getPosition());
+    }
+
+    @Test
+    public void readAheadFailureTest() throws IOException {
+        InputStream source = new InputStream() {
+            int count;
+
+            @Override
+            public int read() {
+                if (count == 150)
+                    throw new IllegalStateException("broken source");
+                return count++ & 0xff;
+            }
+        };
+
+        byte[] buf = new byte[1000];
+        int n = 0;
+        try (InputStream in = new ReadAheadInputStream(source, 100)) {
+            while (true) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0)
+                    fail();
+                n += r;
+            }
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(100, n);
+    }
+
+    @Test
+    public void subtypesTest() {
+        Scene scene = new Scene();
+        scene.main = new Circle(1, 5);
+        scene.shapes = new Shape[]{new Shape(2), new Square(3, 4), new Circle(5, 6), new Square(7, 8)};
+
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(scene);
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        Scene deserialized = objectInput.readObject(Scene.class);
+
+        assertEquals(scene.main, deserialized.main);
+        assertArrayEquals(scene.shapes, deserialized.shapes);
+    }
+
+    @Test
+    public void subtypesRootTest() {
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        Scene scene = new Scene();
+        scene.main = new Square(1, 2);
+        scene.shapes = new Shape[]{new Circle(3, 4)};
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(new Shape(2));
+        objectOutput.write(new Circle(1, 5));
+        objectOutput.write(scene);
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        assertEquals(new Shape(2), objectInput.readObject(Shape.class));
+        assertEquals(new Circle(1, 5), objectInput.readObject(Circle.class));
+        assertEquals(scene.main, objectInput.readObject(Scene.class).main);
+        assertEquals(baos.size(), objectInput.getPosition());
+
+        IncrementalDecoder<Shape, Context> decoder = new IncrementalDecoder<>(new ReflectionSerializerFactory<>(), Shape.class, UnrealPackage.getDefaultCharset(), null);
+        decoder.feed(baos.toByteArray(), 0, 4);
+        assertEquals(new Shape(2), decoder.decode());
+        IncrementalDecoder<Scene, Context> sceneDecoder = new IncrementalDecoder<>(new ReflectionSerializerFactory<>(), Scene.class, UnrealPackage.getDefaultCharset(), null);
+        byte[] bytes = baos.toByteArray();
+        sceneDecoder.feed(bytes, 12, bytes.length - 12);
+        Scene decoded = sceneDecoder.decode();
+        assertEquals(scene.main, decoded.main);
+        assertArrayEquals(scene.shapes, decoded.shapes);
+    }
+
+    public static class Scene {
+        public Shape main;
+        public Shape[] shapes;
+    }
+
+    @Subtypes({
+            @Subtype(tag = 0, value = Shape.class),
+            @Subtype(tag = 1, value = Circle.class),
+            @Subtype(tag = 2, value = Square.class)
+    })
+    public static class Shape {
+        public int x;
+
+        public Shape() {
+        }
+
+        public Shape(int x) {
+            this.x = x;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o != null && getClass() == o.getClass() && Arrays.equals(state(), ((Shape) o).state());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(state());
+        }
+
+        protected int[] state() {
+            return new int[]{x};
+        }
+    }
+
+    public static class Circle extends Shape {
+        public int radius;
+
+        public Circle() {
+        }
+
+        public Circle(int x, int radius) {
+            super(x);
+            this.radius = radius;
+        }
+
+        @Override
+        protected int[] state() {
+            return new int[]{x, radius};
+        }
+    }
+
+    public static class Square extends Shape {
+        public int side;
+
+        public Square() {
+        }
+
+        public Square(int x, int side) {
+            super(x);
+            this.side = side;
+        }
+
+        @Override
+        protected int[] state() {
+            return new int[]{x, side};
+        }
+    }
+
+    @Test
+    public void varIntTest() {
+        Telemetry telemetry = new Telemetry();
+        telemetry.count = 300;
+        telemetry.offset = -2;
+        telemetry.id = Long.MAX_VALUE;
+        telemetry.balance = Long.MIN_VALUE;
+        telemetry.flags = -1;
+        telemetry.ids = new int[]{1, 2, 3, 1000, 999, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        telemetry.timestamps = new long[]{1476000000000L, 1476000000015L, 1476000000020L, -5L};
+        telemetry.values = new int[]{0, 127, 128, -1, 16384};
+
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(telemetry);
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        assertEquals(telemetry, objectInput.readObject(Telemetry.class));
+
+        objectInput = new ObjectInputBuffer<>(ByteBuffer.wrap(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        assertEquals(telemetry, objectInput.readObject(Telemetry.class));
+    }
+
+    public static class Telemetry {
+        @VarInt
+        public int count;
+        @ZigZag
+        public int offset;
+        @VarInt
+        public long id;
+        @ZigZag
+        public long balance;
+        @ZigZag
+        public short flags;
+        @Delta
+        public int[] ids;
+        @Delta
+        public long[] timestamps;
+        @VarInt
+        public int[] values;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Telemetry that = (Telemetry) o;
+
+            return count == that.count && offset == that.offset &&
+                    id == that.id && balance == that.balance && flags == that.flags &&
+                    Arrays.equals(ids, that.ids) && Arrays.equals(timestamps, that.timestamps) &&
+                    Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+    }
+
+    @Test
+    public void flyweightTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        for (int i = 0; i < 10; i++) {
+            Vertex vertex = new Vertex();
+            vertex.position = new float[]{i, i * 2, i * 3};
+            vertex.color = 200 + i;
+            vertex.id = i * 1000L;
+            objectOutput.write(vertex);
+        }
+
+        Flyweight<Vertex> flyweight = serializerFactory.flyweight(Vertex.class, ByteBuffer.wrap(baos.toByteArray()));
+        int position = flyweight.getLayout().indexOf("position");
+        int color = flyweight.getLayout().indexOf("color");
+        int id = flyweight.getLayout().indexOf("id");
+        assertEquals(10, flyweight.count());
+        for (int i = 0; i < flyweight.count(); i++) {
+            flyweight.moveTo(i);
+            assertEquals(i * 2, flyweight.getFloat(position, 1), 0);
+            assertEquals(200 + i, flyweight.getInt(color));
+            assertEquals(i * 1000L, flyweight.getLong(id));
+        }
+
+        Vertex vertex = flyweight.moveTo(7).get();
+        assertEquals(21, vertex.position[2], 0);
+        assertEquals(207, vertex.color);
+
+        byte[] truncated = Arrays.copyOf(baos.toByteArray(), baos.size() - 1);
+        try {
+            serializerFactory.flyweight(Vertex.class, ByteBuffer.wrap(truncated));
+            fail();
+        } catch (UncheckedIOException expected) {
+        }
+    }
+
+    @Test
+    public void flyweightEmptyArrayTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        Padded padded = new Padded();
+        padded.empty = new float[0];
+        padded.id = 42;
+
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(padded);
+        output.write(padded);
+
+        Flyweight<Padded> flyweight = serializerFactory.flyweight(Padded.class, ByteBuffer.wrap(output.toByteArray()));
+        assertEquals(4, flyweight.getLayout().size());
+        assertEquals(0, flyweight.getLayout().getOffset(flyweight.getLayout().indexOf("id")));
+        assertEquals(2, flyweight.count());
+        assertEquals(42, flyweight.moveTo(1).getInt(flyweight.getLayout().indexOf("id")));
+        assertEquals(42, flyweight.get().id);
+        output.close();
+    }
+
+    @Test
+    public void constLengthTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        Vertex vertex = new Vertex();
+        vertex.position = new float[4];
+
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        try {
+            output.write(vertex);
+            fail();
+        } catch (SerializerException expected) {
+        }
+        output.close();
+    }
+
+    @Test
+    public void readOnlyBufferTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        byte[] bytes = new byte[0x5000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) i;
+        ByteBuffer readOnly = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<Context>(UnrealPackage.getDefaultCharset(), serializerFactory, null) {
+            @Override
+            public void writeBytes(byte[] b, int off, int len) {
+                fail();
+            }
+        };
+        output.writeByte(1);
+        output.writeBuffer(readOnly);
+        assertEquals(0, readOnly.position());
+        byte[] written = output.toByteArray();
+        assertEquals(1 + bytes.length, written.length);
+        assertArrayEquals(bytes, Arrays.copyOfRange(written, 1, written.length));
+        output.close();
+
+        SegmentedObjectOutput<Context> segmented = new SegmentedObjectOutput<>(UnrealPackage.getDefaultCharset(), 0, serializerFactory, null, null, 0x100, 0x10000);
+        segmented.writeBuffer(readOnly);
+        assertArrayEquals(bytes, segmented.toByteArray());
+        segmented.close();
+    }
+
+    public static class Padded {
+        @Length(value = Length.Type.CONST, length = 0)
+        public float[] empty;
+        public int id;
+    }
+
+    public static class Vertex {
+        @Length(value = Length.Type.CONST, length = 3)
+        public float[] position;
+        @UByte
+        public int color;
+        public long id;
+    }
+
+    @Test
+    public void columnarTest() {
+        Export export = new Export();
+        export.records = new Record[100];
+        for (int i = 0; i < export.records.length; i++)
+            export.records[i] = new Record(i, i % 7, "item" + i % 3, i / 4f);
+
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput<Context> objectOutput = new ObjectOutputStream<>(baos, UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        objectOutput.write(export);
+
+        ObjectInput<Context> objectInput = new ObjectInputStream<>(new ByteArrayInputStream(baos.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        assertArrayEquals(export.records, objectInput.readObject(Export.class).records);
+    }
+
+    @Test
+    public void hostileLengthTest() {
+        ReflectionSerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+
+        World world = new World();
+        world.name = "w";
+        world.origin = new Vertex();
+        world.origin.position = new float[3];
+        world.vertices = new Vertex[0];
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(world);
+        output.write(world.origin);
+        byte[] bytes = output.toByteArray();
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length - 25, Integer.MAX_VALUE);
+
+        IncrementalDecoder<World, Context> decoder = new IncrementalDecoder<>(serializerFactory, World.class, UnrealPackage.getDefaultCharset(), null);
+        decoder.feed(bytes, 0, bytes.length);
+        assertNull(decoder.decode());
+
+        output.reset();
+        output.writeCompactInt(0x10000000);
+        output.writeInt(1);
+        try {
+            new ObjectInputBuffer<>(output.toByteBuffer(), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Export.class);
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+        output.close();
+    }
+
+    @Test
+    public void columnarWidthsTest() {
+        Series series = new Series();
+        series.samples = new Sample[50];
+        for (int i = 0; i < series.samples.length; i++) {
+            Sample sample = new Sample();
+            sample.b = (byte) -i;
+            sample.s = (short) (i * 1000);
+            sample.u8 = 200 + i;
+            sample.u16 = 60000 + i;
+            sample.l = (long) i << 40;
+            series.samples[i] = sample;
+        }
+
+        SerializerFactory<Context> serializerFactory = new ReflectionSerializerFactory<>();
+        ObjectOutputBuffer<Context> output = new ObjectOutputBuffer<>(UnrealPackage.getDefaultCharset(), serializerFactory, null);
+        output.write(series);
+        assertEquals(1 + 50 * (1 + 2 + 1 + 2 + 8), output.size());
+
+        Series read = new ObjectInputBuffer<>(ByteBuffer.wrap(output.toByteArray()), UnrealPackage.getDefaultCharset(), serializerFactory, null).readObject(Series.class);
+        for (int i = 0; i < series.samples.length; i++) {
+            assertEquals(series.samples[i].b, read.samples[i].b);
+            assertEquals(series.samples[i].s, read.samples[i].s);
+            assertEquals(series.samples[i].u8, read.samples[i].u8);
+            assertEquals(series.samples[i].u16, read.samples[i].u16);
+            assertEquals(series.samples[i].l, read.samples[i].l);
+        }
+        output.close();
+    }
+
+    public static class Series {
+        @Columnar
+        public Sample[] samples;
+    }
+
+    public static class Sample {
+        public byte b;
+        public short s;
+        @UByte
+        public int u8;
+        @UShort
+        public int u16;
+        public long l;
+    }
+
+    public static class Export {
+        @Columnar
+        public Record[] records;
+    }
+
+    public static class Record {
+        public int id;
+        @Compact
+        public int count;
+        public String name;
+        public float weight;
+
+        public Record() {
+        }
+
+        public Record(int id, int count, String name, float weight) {
+            this.id = id;
+            this.count = count;
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Record record = (Record) o;
+
+            return id == record.id && count == record.count &&
+                    Float.compare(record.weight, weight) == 0 && name.equals(record.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
 }